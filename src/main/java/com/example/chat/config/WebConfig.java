@@ -1,12 +1,24 @@
 package com.example.chat.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.CacheControl;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
+import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.nio.file.Path;
+import java.time.Duration;
+
 @Configuration
 public class WebConfig implements WebMvcConfigurer {
 
+    @Value("${chat.media.storage:cloudinary}")
+    private String mediaStorage;
+
+    @Value("${chat.media.local.dir:${user.home}/chat-media}")
+    private Path mediaDir;
+
     @Override
     public void addCorsMappings(CorsRegistry registry) {
         registry.addMapping("/**")
@@ -16,5 +28,16 @@ public class WebConfig implements WebMvcConfigurer {
                 .exposedHeaders("X-XSRF-TOKEN")
                 .allowCredentials(true); // Allow credentials if needed (e.g., authentication cookies)
     }
-}
 
+    // LocalMediaStorage names files by content, so a URL never changes what it points to
+    @Override
+    public void addResourceHandlers(ResourceHandlerRegistry registry) {
+        if ("local".equals(mediaStorage)) {
+            // The trailing slash matters: without it the location is treated as a file, not a directory
+            String location = mediaDir.toAbsolutePath().normalize().toUri().toString();
+            registry.addResourceHandler("/media/**")
+                    .addResourceLocations(location.endsWith("/") ? location : location + "/")
+                    .setCacheControl(CacheControl.maxAge(Duration.ofDays(365)).cachePublic().immutable());
+        }
+    }
+}
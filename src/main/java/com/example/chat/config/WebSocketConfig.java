@@ -1,16 +1,23 @@
 package com.example.chat.config;
 
 import com.example.chat.security.JwtHandshakeInterceptor;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.Nonnull;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.messaging.simp.config.StompBrokerRelayRegistration;
 import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
 import org.springframework.messaging.support.ChannelInterceptor;
 import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.util.unit.DataSize;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
@@ -19,6 +26,8 @@ import org.springframework.web.socket.config.annotation.*;
 
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
 
 @Configuration
 @EnableWebSocketMessageBroker
@@ -27,31 +36,98 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
     @Autowired
     JwtHandshakeInterceptor jwtHandshakeInterceptor;
 
+    @Value("${chat.broker.mode:simple}")
+    String brokerMode;
+
+    @Value("${chat.broker.relay.host:localhost}")
+    String relayHost;
+
+    @Value("${chat.broker.relay.port:61613}")
+    int relayPort;
+
+    @Value("${chat.broker.relay.client-login:guest}")
+    String relayClientLogin;
+
+    @Value("${chat.broker.relay.client-passcode:guest}")
+    String relayClientPasscode;
+
+    @Value("${chat.broker.relay.system-login:guest}")
+    String relaySystemLogin;
+
+    @Value("${chat.broker.relay.system-passcode:guest}")
+    String relaySystemPasscode;
+
+    @Value("${chat.broker.relay.virtual-host:}")
+    String relayVirtualHost;
+
+    @Value("${chat.websocket.message-size-limit:128KB}")
+    DataSize messageSizeLimit;
+
+    @Value("${chat.websocket.send-buffer-size-limit:1MB}")
+    DataSize sendBufferSizeLimit;
+
+    @Autowired
+    Environment environment;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
     @Override
     public void configureMessageBroker(@Nonnull MessageBrokerRegistry config) {
-        config.enableSimpleBroker("/topic", "/queue", "/user");
+        if ("relay".equalsIgnoreCase(brokerMode)) {
+            // Every node shares the external broker; the two broadcast topics let a node resolve
+            // /user destinations for sessions held by other nodes and share the user registry
+            StompBrokerRelayRegistration relay = config.enableStompBrokerRelay("/topic", "/queue")
+                    .setRelayHost(relayHost)
+                    .setRelayPort(relayPort)
+                    .setClientLogin(relayClientLogin)
+                    .setClientPasscode(relayClientPasscode)
+                    .setSystemLogin(relaySystemLogin)
+                    .setSystemPasscode(relaySystemPasscode)
+                    .setUserDestinationBroadcast("/topic/unresolved-user-destination")
+                    .setUserRegistryBroadcast("/topic/simp-user-registry");
+
+            if (!relayVirtualHost.isBlank()) {
+                relay.setVirtualHost(relayVirtualHost);
+            }
+        } else {
+            config.enableSimpleBroker("/topic", "/queue", "/user");
+        }
         config.setApplicationDestinationPrefixes("/app");
+        // The pools below hand one session's messages to several threads; clients apply delta
+        // events by version, so each session must still receive them in publish order
+        config.setPreservePublishOrder(true);
+        config.configureBrokerChannel().taskExecutor(channelExecutor("broker"));
     }
 
     @Override
     public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
-        registration.setMessageSizeLimit(50 * 1024 * 1024); // 50MB
-        registration.setSendBufferSizeLimit(50 * 1024 * 1024); // 50MB
+        // Files go through the REST upload endpoints, so frames only carry text and URLs
+        registration.setMessageSizeLimit((int) messageSizeLimit.toBytes());
+        registration.setSendBufferSizeLimit((int) sendBufferSizeLimit.toBytes());
         registration.setSendTimeLimit(20000);
     }
 
     @Override
     public void registerStompEndpoints(@Nonnull StompEndpointRegistry registry) {
+        // Likewise, frames from one session are handled in the order they arrived
+        registry.setPreserveReceiveOrder(true);
         registry.addEndpoint("/ws-chat")
                 .setAllowedOriginPatterns("*")
                 .addInterceptors(jwtHandshakeInterceptor)
                 .withSockJS()
-                .setStreamBytesLimit(50 * 1024 * 1024)
+                .setStreamBytesLimit((int) sendBufferSizeLimit.toBytes())
                 .setHttpMessageCacheSize(1000);
     }
 
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        registration.taskExecutor(channelExecutor("outbound"));
+    }
+
     @Override
     public void configureClientInboundChannel(ChannelRegistration registration) {
+        registration.taskExecutor(channelExecutor("inbound"));
         registration.interceptors(new ChannelInterceptor() {
             @Override
             public Message<?> preSend(Message<?> message, MessageChannel channel) {
@@ -69,4 +145,32 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
             }
         });
     }
+
+    /**
+     * Sized from chat.websocket.{channel}.* properties. Spring registers the executor as a bean and
+     * initializes it, and Boot publishes its pool and queue metrics under the bean name
+     * (clientInboundChannelExecutor, clientOutboundChannelExecutor, brokerChannelExecutor).
+     * Rejected tasks are counted in chat.websocket.executor.rejected before the default abort.
+     */
+    private ThreadPoolTaskExecutor channelExecutor(String channel) {
+        String prefix = "chat.websocket." + channel + ".";
+        int processors = Runtime.getRuntime().availableProcessors();
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(environment.getProperty(prefix + "core-pool-size", Integer.class, processors * 2));
+        executor.setMaxPoolSize(environment.getProperty(prefix + "max-pool-size", Integer.class, processors * 4));
+        executor.setQueueCapacity(environment.getProperty(prefix + "queue-capacity", Integer.class, 10000));
+        executor.setKeepAliveSeconds(environment.getProperty(prefix + "keep-alive-seconds", Integer.class, 60));
+        executor.setThreadNamePrefix("ws-" + channel + "-");
+
+        Counter rejected = Counter.builder("chat.websocket.executor.rejected")
+                .tag("channel", channel)
+                .register(meterRegistry);
+        RejectedExecutionHandler abort = new ThreadPoolExecutor.AbortPolicy();
+        executor.setRejectedExecutionHandler((task, pool) -> {
+            rejected.increment();
+            abort.rejectedExecution(task, pool);
+        });
+        return executor;
+    }
 }
\ No newline at end of file
@@ -2,6 +2,7 @@ package com.example.chat.controller;
 
 import com.example.chat.entity.*;
 import com.example.chat.security.JwtUtil;
+import com.example.chat.security.WebSocketTicketService;
 import com.example.chat.service.*;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.mail.MessagingException;
@@ -21,7 +22,6 @@ import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.csrf.CsrfToken;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
@@ -70,13 +70,16 @@ public class LoginController {
     private JwtUtil jwtUtil;
 
     @Autowired
-    private CloudinaryService cloudinaryService;
+    private WebSocketTicketService webSocketTicketService;
+
+    @Autowired
+    private MediaService mediaService;
 
     @Autowired
     UserConnectionService userConnectionService;
 
     @Autowired
-    PasswordEncoder encoder;
+    PresenceRegistry presenceRegistry;
 
     @Autowired
     private static SimpMessagingTemplate messagingTemplate;
@@ -104,7 +107,7 @@ public class LoginController {
 
         if (file != null && !file.isEmpty()) {
             try {
-                String profileUrl =  cloudinaryService.uploadFile(file);
+                String profileUrl =  mediaService.upload(file);
                 userData.setProfilePicture(profileUrl);
             } catch (IOException e) {
                 return new ResponseEntity<>("Failed to upload file!", HttpStatus.EXPECTATION_FAILED);
@@ -134,9 +137,11 @@ public class LoginController {
 
             SecurityContextHolder.getContext().setAuthentication(authentication);
 
-            String jwtToken = jwtUtil.generateToken(userDetails.getUsername());
-            String key = userService.getUserByUserName(userDetails.getUsername()).getId();
-            String encodedKey = encoder.encode(key);
+            User user = userService.getUserByUserName(userName);
+
+            String jwtToken = jwtUtil.generateToken(user.getUserName(), user.getRoles(), user.getTokenVersion());
+            // Single-use ticket for the first WebSocket connect; reconnects fetch a new one from /user/ws-ticket
+            String encodedKey = webSocketTicketService.issue(user.getUserName());
 
             // Get CSRF token from the request (Spring Security adds it automatically)
 //            CsrfToken csrfToken = (CsrfToken) request.getAttribute("_csrf");
@@ -160,9 +165,9 @@ public class LoginController {
             response.addHeader(HttpHeaders.SET_COOKIE, csrfCookie.toString());
 
 
-            User user = userService.getUserByUserName(userName);
+            // Only the status is written, through the presence flush, never the whole cached user
+            presenceRegistry.recordStatus(user.getUserName(), "online");
             user.setStatus("online");
-            userService.saveUser(user);
             user.setPassword("");
 
             Map<String, Object> result = new HashMap<>();
@@ -5,7 +5,6 @@ import com.example.chat.service.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
@@ -31,7 +30,10 @@ public class UserConnectionController {
     UserConversationService userConversationService;
 
     @Autowired
-    private SimpMessagingTemplate messagingTemplate;
+    ConnectionViewAssembler connectionViewAssembler;
+
+    @Autowired
+    ChatEventService chatEventService;
 
     @GetMapping("/get-connections")
     public ResponseEntity<?> getConnections(Authentication authentication) {
@@ -47,48 +49,6 @@ public class UserConnectionController {
                 return new ResponseEntity<>("No Connections Exists!", HttpStatus.NO_CONTENT);
             }
 
-            for (UserConnection userConnection : userConnections) {
-                String userName = user.getUserName()
-                        .equals(userConnection.getUserName1()) ?
-                            userConnection.getUserName2()
-                            :
-                            userConnection.getUserName1();
-
-                User userDetails = userService.getUserByUserName(userName);
-
-                Set<UserConversation> conversationsList = userConversationService.getConversations(userConnection.getConversationsId());
-
-                long[] counts = conversationsList.stream()
-                        .filter(data ->
-                                    !data.getStatus().equals("Read") &&
-                                    !(
-                                        (data.getSender().equals(user.getUserName()) && data.isMessageDeletedByUser1())
-                                        ||
-                                        (data.getReceiver().equals(user.getUserName()) && data.isMessageDeletedByUser2())
-                                    )
-                        )
-                        .collect(() -> new long[2], (arr, data) -> {
-                            if (data.getSender().equals(userName)) arr[0]++;
-                            if (data.getReceiver().equals(userName)) arr[1]++;
-                        }, (arr1, arr2) -> {
-                            arr1[0] += arr2[0];
-                            arr1[1] += arr2[1];
-                        });
-
-                long user1Count = counts[0];
-                long user2Count = counts[1];
-
-                boolean isBlocked = userConnection.getUserName1().equals(authUser.getUsername()) ? userConnection.isBlockedByUser2() : userConnection.isBlockedByUser1();
-
-                userConnection.setUserName(userName)
-                        .setProfilePicture(isBlocked ? null : userDetails.getProfilePicture())
-                        .setLastSeen(isBlocked ? null : userDetails.getLastSeen())
-                        .setUnReadMsgsOfUser1(isBlocked ? "0" : user1Count + "")
-                        .setUnReadMsgsOfUser2(isBlocked ? "0" : user2Count + "")
-                        .setLoginStatus(isBlocked ? null : userDetails.getStatus())
-                        .setEmail(userDetails.getEmail());
-            }
-
             userConnections.sort((user1, user2) -> {
                 LocalDateTime latest1 = user1.getUser1LastConversationAt().isAfter(user1.getUser2LastConversationAt())
                         ? user1.getUser1LastConversationAt()
@@ -101,7 +61,7 @@ public class UserConnectionController {
                 return latest2.compareTo(latest1);
             });
 
-            return new ResponseEntity<>(userConnections, HttpStatus.OK);
+            return new ResponseEntity<>(connectionViewAssembler.toViews(userConnections, user.getUserName()), HttpStatus.OK);
 
         } catch (Exception e) {
             return new ResponseEntity<>("An error occurred: " + e.getMessage(), HttpStatus.BAD_REQUEST);
@@ -109,7 +69,9 @@ public class UserConnectionController {
     }
 
     @GetMapping("/get-searched-users/{searched}")
-    public ResponseEntity<?> getSearchedUsers(Authentication authentication, @PathVariable String searched) {
+    public ResponseEntity<?> getSearchedUsers(Authentication authentication, @PathVariable String searched,
+                                              @RequestParam(defaultValue = "0") int page,
+                                              @RequestParam(defaultValue = "" + UserService.DEFAULT_SEARCH_PAGE_SIZE) int size) {
 
         if (!authentication.isAuthenticated()){
             return new ResponseEntity<>(HttpStatus.UNAUTHORIZED);
@@ -117,7 +79,7 @@ public class UserConnectionController {
 
         UserDetails userDetails = (UserDetails) authentication.getPrincipal();
 
-        List<UserService.UserDTO> users = userService.getUsersBySearch(searched, userDetails.getUsername());
+        List<UserService.UserDTO> users = userService.getUsersBySearch(searched, userDetails.getUsername(), page, size);
 
         if (users.isEmpty()){
             return new ResponseEntity<>("No users found!", HttpStatus.NO_CONTENT);
@@ -134,13 +96,9 @@ public class UserConnectionController {
 
             UserConnection userConnection = userConnectionService.getConnection(participants);
 
-            if (userConnection.getUserName1().equals(authUser.getUsername())){
-                userConnection.setBlockedByUser1(status);
-            } else {
-                userConnection.setBlockedByUser2(status);
-            }
-
-            userConnectionService.saveConnection(userConnection);
+            userConnectionService.updateConnection(
+                    userConnectionService.update(userConnection).blocked(authUser.getUsername(), status)
+            );
 
             return new ResponseEntity<>(HttpStatus.CREATED);
         } catch (Exception e) {
@@ -156,36 +114,26 @@ public class UserConnectionController {
 
             UserConnection userConnection = userConnectionService.getConnection(participants);
 
+            UserConnectionService.ConnectionUpdate connectionUpdate = userConnectionService.update(userConnection)
+                    .connectionDeleted(authUser.getUsername(), true)
+                    .blocked(authUser.getUsername(), status)
+                    .chatCleared(authUser.getUsername(), LocalDateTime.now());
+
             if (userConnection.getUserName1().equals(authUser.getUsername())){
-                userConnection.setConnectionDeletedByUser1(true)
-                        .setBlockedByUser1(status)
-                        .setRecentChatClearedByUser1(LocalDateTime.now())
-                        .setUser2LastConversationId(null)
-                        .setUser2LastConversation(null)
-                        .setUser2LastConversationType(null)
-                        .setUser2LastConversationAt(null);
+                connectionUpdate.user2LastConversation(null, null);
             } else {
-                userConnection.setConnectionDeletedByUser2(true)
-                        .setBlockedByUser2(status)
-                        .setRecentChatClearedByUser2(LocalDateTime.now())
-                        .setUser1LastConversationId(null)
-                        .setUser1LastConversation(null)
-                        .setUser1LastConversationType(null)
-                        .setUser1LastConversationAt(null);
+                connectionUpdate.user1LastConversation(null, null);
             }
 
-            userConnectionService.saveConnection(userConnection);
+            UserConnection updatedConnection = userConnectionService.updateConnection(connectionUpdate);
 
             if (status) {
-                User receiver = userService.getUserByUserName(userName);
-                userConnection.setEmail(receiver.getEmail());
-
-                boolean isChatOpened = userConnection.getUserName1().equals(authUser.getUsername()) ? userConnection.isUser2ChatOpened() : userConnection.isUser1ChatOpened();
+                boolean isChatOpened = updatedConnection.getUserName1().equals(authUser.getUsername()) ? updatedConnection.isUser2ChatOpened() : updatedConnection.isUser1ChatOpened();
 
-                messagingTemplate.convertAndSendToUser(
+                chatEventService.notify(
                         userName,
-                        "/queue/messages",
-                        List.of(new WebSocketsController.StatusResponse(authUser.getUsername(), isChatOpened ? null : new UserConversation(), userConnection, 200, "", "Receive"))
+                        List.of(ChatEventService.connectionChanged(authUser.getUsername()).setBlocked(true).setConnectionDeleted(true)),
+                        () -> List.of(new WebSocketsController.StatusResponse(authUser.getUsername(), isChatOpened ? null : new UserConversation(), connectionViewAssembler.toView(updatedConnection, userName), 200, "", "Receive"))
                 );
             }
 
@@ -211,58 +159,27 @@ public class UserConnectionController {
 
             if (prevParticipants != null){
                 UserConnection prevUserConnection = userConnectionService.getConnection(prevParticipants);
-                if (prevUserConnection.getUserName1().equals(authUser.getUsername()) && prevUserConnection.isUser1ChatOpened()) {
-                    prevUserConnection.setUser1ChatOpened(false);
-                } else if (prevUserConnection.getUserName2().equals(authUser.getUsername()) && prevUserConnection.isUser2ChatOpened()) {
-                    prevUserConnection.setUser2ChatOpened(false);
+                if ((prevUserConnection.getUserName1().equals(authUser.getUsername()) && prevUserConnection.isUser1ChatOpened())
+                        || (prevUserConnection.getUserName2().equals(authUser.getUsername()) && prevUserConnection.isUser2ChatOpened())) {
+                    userConnectionService.updateConnection(
+                            userConnectionService.update(prevUserConnection).chatOpened(authUser.getUsername(), false)
+                    );
                 }
-                userConnectionService.saveConnection(prevUserConnection);
             }
 
-            if (userConnection.getUserName1().equals(authUser.getUsername())){
-                userConnection.setUser1ChatOpened(true);
-                userConnection.setUnReadMsgsOfUser2("0");
-                Set<String> userConversationsId = userConnection.getConversationsId();
-                Set<UserConversation> userConversations = userConversationService.getConversations(userConversationsId);
-                for (UserConversation userConversation : userConversations) {
-                    if (userConversation.getSender().equals(userConnection.getUserName2()) && !userConversation.isMessageDeletedByUser2()) {
-                        if (userConversation.getStatus().equals("Read")){
-                            break;
-                        }
-                        userConversation.setStatus("Read");
-                    }
-                }
-                userConversationService.saveAllConversations(userConversations);
-            } else if (userConnection.getUserName2().equals(authUser.getUsername())) {
-                userConnection.setUser2ChatOpened(true);
-                userConnection.setUnReadMsgsOfUser1("0");
-                Set<String> userConversationsId = userConnection.getConversationsId();
-                Set<UserConversation> userConversations = userConversationService.getConversations(userConversationsId);
-                for (UserConversation userConversation : userConversations) {
-                    if (userConversation.getSender().equals(userConnection.getUserName1()) && !userConversation.isMessageDeletedByUser1()) {
-                        if (userConversation.getStatus().equals("Read")){
-                            break;
-                        }
-                        userConversation.setStatus("Read");
-                    }
-                }
-                userConversationService.saveAllConversations(userConversations);
-
-            }
-
-            userConnectionService.saveConnection(userConnection);
+            LocalDateTime readAt = LocalDateTime.now();
+            userConversationService.markRead(participants, authUser.getUsername(), readAt);
+            UserConnection updatedConnection = userConnectionService.updateConnection(
+                    userConnectionService.update(userConnection)
+                            .chatOpened(authUser.getUsername(), true)
+                            .resetUnread(authUser.getUsername())
+            );
 
             if (!object.get("unReadMsgCount").equals("0") && !object.get("unReadMsgCount").equals("None")) {
-                User user = userService.getUserByUserName(authUser.getUsername());
-                userConnection.setEmail(user.getEmail())
-                        .setLastSeen(user.getLastSeen())
-                        .setLoginStatus(user.getStatus())
-                        .setProfilePicture(user.getProfilePicture());
-
-                messagingTemplate.convertAndSendToUser(
+                chatEventService.notify(
                         userName,
-                        "/queue/messages",
-                        List.of(new WebSocketsController.StatusResponse(authUser.getUsername(), null, userConnection, 200, "", "Receive"))
+                        List.of(ChatEventService.statusChanged(authUser.getUsername(), "Read", readAt)),
+                        () -> List.of(new WebSocketsController.StatusResponse(authUser.getUsername(), null, connectionViewAssembler.toView(updatedConnection, userName), 200, "", "Receive"))
                 );
             }
 
@@ -280,13 +197,9 @@ public class UserConnectionController {
 
             UserConnection userConnection = userConnectionService.getConnection(participants);
 
-            if (userConnection.getUserName1().equals(authUser.getUsername())) {
-                userConnection.setUser1ChatOpened(false);
-            } else if (userConnection.getUserName2().equals(authUser.getUsername())) {
-                userConnection.setUser2ChatOpened(false);
-            }
-
-            userConnectionService.saveConnection(userConnection);
+            userConnectionService.updateConnection(
+                    userConnectionService.update(userConnection).chatOpened(authUser.getUsername(), false)
+            );
 
             return new ResponseEntity<>(HttpStatus.OK);
         } catch (Exception e) {
@@ -1,16 +1,15 @@
 package com.example.chat.controller;
 import com.example.chat.entity.*;
+import com.example.chat.security.WebSocketTicketService;
 import com.example.chat.service.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.messaging.handler.annotation.MessageMapping;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -28,10 +27,7 @@ public class UserController {
     UserService userService;
 
     @Autowired
-    PasswordEncoder passwordEncoder;
-
-    @Autowired
-    CloudinaryService cloudinaryService;
+    MediaService mediaService;
 
     @Autowired
     OTPService otpService;
@@ -43,7 +39,16 @@ public class UserController {
     UserConnectionService userConnectionService;
 
     @Autowired
-    SimpMessagingTemplate messagingTemplate;
+    PresenceRegistry presenceRegistry;
+
+    @Autowired
+    ConnectionViewAssembler connectionViewAssembler;
+
+    @Autowired
+    ChatEventService chatEventService;
+
+    @Autowired
+    WebSocketTicketService webSocketTicketService;
 
 
     @GetMapping("/get-user")
@@ -57,20 +62,26 @@ public class UserController {
         return new ResponseEntity<>(userService.getUserByUserName(userName), HttpStatus.OK);
     }
 
+    // Passed as ?key= when opening the WebSocket; valid once and only briefly, so fetch one per (re)connect
+    @PostMapping("/ws-ticket")
+    public ResponseEntity<?> getWebSocketTicket(@AuthenticationPrincipal UserDetails userDetails) {
+
+        if (userDetails == null) {
+            return new ResponseEntity<>("Unauthorized", HttpStatus.UNAUTHORIZED);
+        }
+
+        return new ResponseEntity<>(webSocketTicketService.issue(userDetails.getUsername()), HttpStatus.OK);
+    }
+
     @PostMapping("/change/status/{status}")
     public ResponseEntity<?> changeStatus(Authentication authentication, @PathVariable String status) {
 
         if (authentication.isAuthenticated()){
             UserDetails authUser = (UserDetails) authentication.getPrincipal();
 
-            User user = userService.getUserByUserName(authUser.getUsername());
-
-            user.setStatus(status);
-            user.setLastSeen(LocalDateTime.now());
-
-            userService.saveUser(user);
+            presenceRegistry.recordStatus(authUser.getUsername(), status);
 
-            loginService.notifyLoginStatus(user.getUserName(), status);
+            loginService.notifyLoginStatus(authUser.getUsername(), status);
 
             return new ResponseEntity<>(HttpStatus.CREATED);
         }
@@ -85,14 +96,7 @@ public class UserController {
             if (authentication.isAuthenticated()) {
                 UserDetails authUser = (UserDetails) authentication.getPrincipal();
 
-                User user = userService.getUserByUserName(authUser.getUsername());
-
-                if (passwordEncoder.matches(newCredentials.get("oldPassword"), user.getPassword())) {
-
-                    user.setPassword(passwordEncoder.encode(newCredentials.get("newPassword")));
-
-                    userService.saveUser(user);
-
+                if (userService.changePassword(authUser.getUsername(), newCredentials.get("oldPassword"), newCredentials.get("newPassword"))) {
                     return new ResponseEntity<>("Changed successfully!", HttpStatus.CREATED);
                 }
 
@@ -112,14 +116,11 @@ public class UserController {
             if (authentication.isAuthenticated()) {
                 UserDetails authUser = (UserDetails) authentication.getPrincipal();
 
-                User user = userService.getUserByUserName(authUser.getUsername());
-
-                boolean isDeleted = oldImageUrl.equals("default") || cloudinaryService.deleteFile(oldImageUrl, fileType);
+                boolean isDeleted = oldImageUrl.equals("default") || mediaService.deleteFile(oldImageUrl, fileType);
                 if (isDeleted) {
-                    String fileURL = cloudinaryService.uploadFile(newImage);
+                    String fileURL = mediaService.upload(newImage);
 
-                    user.setProfilePicture(fileURL);
-                    userService.saveUser(user);
+                    userService.updateProfilePicture(authUser.getUsername(), fileURL);
 
                     return new ResponseEntity<>(fileURL, HttpStatus.CREATED);
                 }
@@ -166,33 +167,24 @@ public class UserController {
                 return new ResponseEntity<>(HttpStatus.NO_CONTENT);
             }
 
-            if (userConnection.getUserName1().equals(user.getUserName())){
-                userConnection.setBlockedByUser1(state);
-                if(userConnection.isConnectionDeletedByUser1()) {
-                    userConnection.setConnectionDeletedByUser1(false);
-                }
-            } else if (userConnection.getUserName2().equals(user.getUserName())) {
-                userConnection.setBlockedByUser2(state);
-                if(userConnection.isConnectionDeletedByUser2()) {
-                    userConnection.setConnectionDeletedByUser2(false);
-                }
-            }
-
-            userConnectionService.saveConnection(userConnection);
-
-            User receiver = userService.getUserByUserName(userName);
-
-            userConnection.setEmail(receiver.getEmail())
-                    .setLastSeen(!state ? receiver.getLastSeen() : null)
-                    .setLoginStatus(!state ? receiver.getStatus() : null)
-                    .setProfilePicture(!state ? user.getProfilePicture() : null);
+            userConnection = userConnectionService.updateConnection(
+                    userConnectionService.update(userConnection)
+                            .blocked(user.getUserName(), state)
+                            .connectionDeleted(user.getUserName(), false)
+            );
 
             boolean isChatOpened = userConnection.getUserName1().equals(user.getUserName()) ? userConnection.isUser2ChatOpened() : userConnection.isUser1ChatOpened();
+            ConnectionViewAssembler.ConnectionView view = connectionViewAssembler.toView(userConnection, userName, user);
 
-            messagingTemplate.convertAndSendToUser(
+            // Unblocking reveals the presence that was hidden while blocked
+            chatEventService.notify(
                     userName,
-                    "/queue/messages",
-                    List.of(new WebSocketsController.StatusResponse(user.getUserName(), isChatOpened ? null : new UserConversation(), userConnection, 200, "", "Receive"))
+                    List.of(ChatEventService.connectionChanged(user.getUserName())
+                            .setBlocked(state)
+                            .setConnectionDeleted(false)
+                            .setLoginStatus(view.getLoginStatus())
+                            .setLastSeen(view.getLastSeen())),
+                    () -> List.of(new WebSocketsController.StatusResponse(user.getUserName(), isChatOpened ? null : new UserConversation(), view, 200, "", "Receive"))
             );
 
             return new ResponseEntity<>(HttpStatus.CREATED);
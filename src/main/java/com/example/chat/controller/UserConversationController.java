@@ -2,16 +2,22 @@ package com.example.chat.controller;
 
 import com.example.chat.service.*;
 import com.example.chat.entity.*;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -20,6 +26,8 @@ import java.util.stream.Collectors;
 @RequestMapping("/conversation")
 public class UserConversationController {
 
+    private static final Logger log = LoggerFactory.getLogger(UserConversationController.class);
+
     @Autowired
     UserConversationService userConversationService;
 
@@ -30,47 +38,132 @@ public class UserConversationController {
     UserConnectionService userConnectionService;
 
     @Autowired
-    private SimpMessagingTemplate messagingTemplate;
+    MediaService mediaService;
 
     @Autowired
-    CloudinaryService cloudinaryService;
+    LoginService loginService;
 
     @Autowired
-    LoginService loginService;
+    ConnectionViewAssembler connectionViewAssembler;
 
-    private final WebSocketsController webSocketsController;
+    @Autowired
+    ChatEventService chatEventService;
 
-    public UserConversationController(WebSocketsController webSocketsController) {
-        this.webSocketsController = webSocketsController;
-    }
+    @Autowired
+    ChunkedUploadService chunkedUploadService;
+
+    @Autowired
+    MediaUploadService mediaUploadService;
 
     @PostMapping("/upload-file/cloudinary")
     public ResponseEntity<?> uploadFileToCloudinary(@RequestParam("file") MultipartFile multipartFile) throws IOException {
         try {
-            String fileURL = cloudinaryService.uploadFile(multipartFile);
+            String fileURL = mediaService.upload(multipartFile);
             return new ResponseEntity<>(fileURL, HttpStatus.CREATED);
         } catch (IOException e) {
             return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
         }
     }
 
-    @PostMapping("/upload-many-files/cloudinary")
-    public ResponseEntity<?> uploadManyFilesToCloudinary(@RequestParam("files") MultipartFile[] multipartFiles) throws IOException {
+    @PostMapping("/upload-file/chunked")
+    public ResponseEntity<?> startChunkedUpload(Authentication authentication, @RequestBody Map<String, String> object) {
+        try {
+            UserDetails authUser = (UserDetails) authentication.getPrincipal();
+            ChunkedUploadService.UploadStatus status = chunkedUploadService.start(
+                    authUser.getUsername(), object.get("fileName"), Long.parseLong(object.getOrDefault("fileSize", "0"))
+            );
+            return new ResponseEntity<>(status, HttpStatus.CREATED);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (IOException e) {
+            return new ResponseEntity<>("An error occurred: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    @GetMapping("/upload-file/chunked/{uploadId}")
+    public ResponseEntity<?> getChunkedUpload(Authentication authentication, @PathVariable String uploadId) {
+        try {
+            UserDetails authUser = (UserDetails) authentication.getPrincipal();
+            return new ResponseEntity<>(chunkedUploadService.getStatus(authUser.getUsername(), uploadId), HttpStatus.OK);
+        } catch (NoSuchElementException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND);
+        }
+    }
+
+    // The raw request body is streamed to disk, nothing is buffered as a MultipartFile
+    @PutMapping(value = "/upload-file/chunked/{uploadId}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> uploadChunk(Authentication authentication, @PathVariable String uploadId, @RequestParam long offset, HttpServletRequest request) {
+        UserDetails authUser = (UserDetails) authentication.getPrincipal();
+        try {
+            return new ResponseEntity<>(chunkedUploadService.appendChunk(authUser.getUsername(), uploadId, offset, request.getInputStream()), HttpStatus.OK);
+        } catch (NoSuchElementException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND);
+        } catch (IllegalStateException e) {
+            return new ResponseEntity<>(chunkedUploadService.getStatus(authUser.getUsername(), uploadId), HttpStatus.CONFLICT);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.PAYLOAD_TOO_LARGE);
+        } catch (IOException e) {
+            return new ResponseEntity<>("An error occurred: " + e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @PostMapping("/upload-file/chunked/{uploadId}/complete")
+    public ResponseEntity<?> completeChunkedUpload(Authentication authentication, @PathVariable String uploadId) {
+        UserDetails authUser = (UserDetails) authentication.getPrincipal();
+        ChunkedUploadService.CompletedUpload completed;
+        try {
+            completed = chunkedUploadService.complete(authUser.getUsername(), uploadId);
+        } catch (NoSuchElementException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND);
+        } catch (IllegalStateException e) {
+            return new ResponseEntity<>(chunkedUploadService.getStatus(authUser.getUsername(), uploadId), HttpStatus.CONFLICT);
+        }
+
+        Path file = completed.getPath();
         try {
-            List<String> urls = new ArrayList<>(multipartFiles.length);
-            for (MultipartFile file : multipartFiles){
-                String fileURL = cloudinaryService.uploadFile(file);
-                urls.add(fileURL);
+            String fileURL = mediaService.upload(file, file.getFileName().toString(), completed.getSha256());
+            return new ResponseEntity<>(fileURL, HttpStatus.CREATED);
+        } catch (IOException e) {
+            log.warn("Failed to store chunked upload {}", uploadId, e);
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        } finally {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.warn("Failed to delete completed upload {}", file, e);
             }
-            return new ResponseEntity<>(urls, HttpStatus.CREATED);
+        }
+    }
+
+    @DeleteMapping("/upload-file/chunked/{uploadId}")
+    public ResponseEntity<?> abortChunkedUpload(Authentication authentication, @PathVariable String uploadId) {
+        try {
+            UserDetails authUser = (UserDetails) authentication.getPrincipal();
+            chunkedUploadService.abort(authUser.getUsername(), uploadId);
+            return new ResponseEntity<>(HttpStatus.OK);
+        } catch (NoSuchElementException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND);
         } catch (IOException e) {
+            return new ResponseEntity<>("An error occurred: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    @PostMapping("/upload-many-files/cloudinary")
+    public ResponseEntity<?> uploadManyFilesToCloudinary(@RequestParam("files") MultipartFile[] multipartFiles) throws IOException {
+        List<String> urls = mediaUploadService.uploadAll(multipartFiles);
+
+        long failed = urls.stream().filter(Objects::isNull).count();
+        if (failed == urls.size()) {
             return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
         }
+
+        // Failed files keep their position as null so the client can retry just those
+        return new ResponseEntity<>(urls, failed > 0 ? HttpStatus.PARTIAL_CONTENT : HttpStatus.CREATED);
     }
 
     @PostMapping("/remove-file/cloudinary/{url}")
     public ResponseEntity<?> removeFileToCloudinary(@PathVariable String url) throws Exception {
-        boolean isDeleted = cloudinaryService.deleteFile(url, "image");
+        boolean isDeleted = mediaService.deleteFile(url, "image");
         return new ResponseEntity<>(isDeleted ? HttpStatus.OK : HttpStatus.BAD_REQUEST);
     }
 
@@ -87,7 +180,7 @@ public class UserConversationController {
                 return new ResponseEntity<>("No connection data found!", HttpStatus.NO_CONTENT);
             }
 
-            Set<UserConversation> conversations = userConversationService.getConversations(userConnection.getConversationsId());
+            Set<UserConversation> conversations = userConversationService.getConversations(participants);
 
             LocalDateTime lastConversationCleared = userConnection.getUserName1().equals(userName) ? userConnection.getRecentChatClearedByUser2() : userConnection.getRecentChatClearedByUser1();
 
@@ -119,32 +212,55 @@ public class UserConversationController {
         }
     }
 
-    @PostMapping("/change-conversation-status/{userName}")
-    public ResponseEntity<?> changeConversationStatus(Authentication authentication, @PathVariable String userName){
+    @GetMapping("/get-conversations/{userName}/history")
+    public ResponseEntity<?> getConversationHistory(
+            Authentication authentication,
+            @PathVariable String userName,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime before,
+            @RequestParam(required = false) String beforeId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime after,
+            @RequestParam(required = false) String afterId,
+            @RequestParam(defaultValue = "" + UserConversationService.DEFAULT_PAGE_SIZE) int size
+    ) {
         try {
             UserDetails authUser = (UserDetails) authentication.getPrincipal();
             String participants = UserConnectionService.getSortedUserKey(authUser.getUsername(), userName);
 
             UserConnection userConnection = userConnectionService.getConnection(participants);
 
-            if (userConnection == null) {
+            if (userConnection == null){
                 return new ResponseEntity<>("No connection data found!", HttpStatus.NO_CONTENT);
             }
 
-            String id = userConnection.getUser1LastConversationAt().isAfter(userConnection.getUser2LastConversationAt())
-                    ? userConnection.getUser1LastConversationId()
-                    : userConnection.getUser2LastConversationId();
+            LocalDateTime lastConversationCleared = userConnection.getUserName1().equals(userName) ? userConnection.getRecentChatClearedByUser2() : userConnection.getRecentChatClearedByUser1();
 
-            Optional<UserConversation> userConversation = userConversationService.getConversation(id);
+            UserConversationService.ConversationPage page = userConversationService.getConversationPage(
+                    participants, authUser.getUsername(), lastConversationCleared,
+                    before, beforeId, after, afterId, size
+            );
 
-            if (userConversation.isPresent() && !userConversation.get().getStatus().equals("Read")) {
-                Set<UserConversation> conversations = userConversationService.getConversations(userConnection.getConversationsId());
-                for (UserConversation conversation : conversations) {
-                    conversation.setStatus("Read");
-                }
-                userConversationService.saveAllConversations(conversations);
+            return new ResponseEntity<>(page, HttpStatus.OK);
+
+        } catch (Exception e){
+            return new ResponseEntity<>("An error occurred: " + e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @PostMapping("/change-conversation-status/{userName}")
+    public ResponseEntity<?> changeConversationStatus(Authentication authentication, @PathVariable String userName){
+        try {
+            UserDetails authUser = (UserDetails) authentication.getPrincipal();
+            String participants = UserConnectionService.getSortedUserKey(authUser.getUsername(), userName);
+
+            UserConnection userConnection = userConnectionService.getConnection(participants);
+
+            if (userConnection == null) {
+                return new ResponseEntity<>("No connection data found!", HttpStatus.NO_CONTENT);
             }
 
+            userConversationService.markRead(participants, authUser.getUsername(), LocalDateTime.now());
+            userConnectionService.resetUnread(userConnection, authUser.getUsername());
+
             return new ResponseEntity<>("Status changed successfully!", HttpStatus.CREATED);
 
         } catch (Exception e) {
@@ -160,13 +276,9 @@ public class UserConversationController {
 
             UserConnection userConnection = userConnectionService.getConnection(participants);
 
-            if (userConnection.getUserName1().equals(authUser.getUsername())){
-                userConnection.setRecentChatClearedByUser1(LocalDateTime.now());
-            } else {
-                userConnection.setRecentChatClearedByUser2(LocalDateTime.now());
-            }
-
-            userConnectionService.saveConnection(userConnection);
+            userConnectionService.updateConnection(
+                    userConnectionService.update(userConnection).chatCleared(authUser.getUsername(), LocalDateTime.now())
+            );
 
             return new ResponseEntity<>(HttpStatus.CREATED);
         } catch (Exception e) {
@@ -186,35 +298,22 @@ public class UserConversationController {
             boolean isDeletedByOneUser = userConversation.getSender().equals(authUser.getUsername())
                     ? userConversation.isMessageDeletedByUser2()
                     : userConversation.isMessageDeletedByUser1();
+            boolean wasUnread = UserConversationService.isUnreadForReceiver(userConversation);
 
-
-            UserConversation lastConversation = userConversationService.getLastConversation(userConnection.getConversationsId(), authUser.getUsername());
+            UserConversation lastConversation = userConversationService.getLastConversation(participants, authUser.getUsername());
             String lastConversationId = lastConversation != null ? lastConversation.getId() : null;
 
-            if (lastConversationId != null && lastConversationId.equals(id)) {
-                UserConversation conversation = userConversationService.getLastConversationExcludeId(userConnection.getConversationsId(), new HashSet<>(Collections.singleton(id)), authUser.getUsername());
-                boolean isConversationNull = conversation == null;
+            UserConnectionService.ConnectionUpdate connectionUpdate = userConnectionService.update(userConnection);
 
-                String message = isConversationNull ? null : conversation.getMessage();
-                String conversationId = isConversationNull ? null : conversation.getId();
-                LocalDateTime createdAt = isConversationNull ? null : conversation.getCreatedAt();
-                String messageType = isConversationNull ? null : conversation.getMessageType();
+            if (lastConversationId != null && lastConversationId.equals(id)) {
+                UserConversation conversation = userConversationService.getLastConversationExcludeId(participants, new HashSet<>(Collections.singleton(id)), authUser.getUsername());
+                LocalDateTime createdAt = conversation == null ? null : conversation.getCreatedAt();
 
                 if (lastConversation.getSender().equals(authUser.getUsername()) || everyone) {
-                    userConnection.setUser1LastConversation(message)
-                            .setUser1LastConversationId(conversationId)
-                            .setUser1LastConversationAt(createdAt)
-                            .setUser1LastConversationType(messageType);
+                    connectionUpdate.user1LastConversation(conversation, createdAt);
                 }
                 if (lastConversation.getReceiver().equals(authUser.getUsername()) || everyone) {
-                    userConnection.setUser2LastConversation(message)
-                            .setUser2LastConversationId(conversationId)
-                            .setUser2LastConversationAt(createdAt)
-                            .setUser2LastConversationType(messageType);
-                }
-
-                if (!everyone && !isDeletedByOneUser){
-                    userConnectionService.saveConnection(userConnection);
+                    connectionUpdate.user2LastConversation(conversation, createdAt);
                 }
             }
 
@@ -226,20 +325,28 @@ public class UserConversationController {
                 }
                 userConversationService.saveConversation(userConversation);
             } else {
-                userConnection.getConversationsId().remove(id);
-                userConversationService.deleteConversation(id);
-                userConnectionService.saveConnection(userConnection);
+                userConversationService.deleteManyConversation(participants, List.of(id));
+            }
+
+            if (wasUnread && (everyone || isDeletedByOneUser || !UserConversationService.isUnreadForReceiver(userConversation))) {
+                connectionUpdate.incrementUnread(userConversation.getReceiver(), -1);
             }
 
-            userConnection.setEmail(receiver.getEmail())
-                    .setLastSeen(receiver.getLastSeen())
-                    .setLoginStatus(receiver.getStatus())
-                    .setProfilePicture(receiver.getProfilePicture());
+            UserConnection updatedConnection = userConnectionService.updateConnection(connectionUpdate);
 
-            webSocketsController.notifyUser(authUser.getUsername(), List.of(new WebSocketsController.StatusResponse(userName, null, userConnection, 200, "", "Send")));
+            chatEventService.notify(
+                    authUser.getUsername(),
+                    List.of(ChatEventService.messageDeleted(userName, List.of(id), everyone, UserConnectionService.getUnreadCount(updatedConnection, authUser.getUsername()))),
+                    () -> List.of(new WebSocketsController.StatusResponse(userName, null, connectionViewAssembler.toView(updatedConnection, authUser.getUsername(), receiver), 200, "", "Send"))
+            );
 
-            if ((userName.equals(userConversation.getSender()) && userConnection.isUser1ChatOpened()) || (userName.equals(userConversation.getReceiver()) && userConnection.isUser2ChatOpened())) {
-                webSocketsController.notifyUser(userName, List.of(new WebSocketsController.StatusResponse(authUser.getUsername(), null, userConnection, 200, "", "Receive")));
+            if ((userName.equals(userConversation.getSender()) && updatedConnection.isUser1ChatOpened()) || (userName.equals(userConversation.getReceiver()) && updatedConnection.isUser2ChatOpened())) {
+                // Deleting only for oneself changes nothing the peer can see
+                chatEventService.notify(
+                        userName,
+                        everyone ? List.of(ChatEventService.messageDeleted(authUser.getUsername(), List.of(id), true, UserConnectionService.getUnreadCount(updatedConnection, userName))) : List.of(),
+                        () -> List.of(new WebSocketsController.StatusResponse(authUser.getUsername(), null, connectionViewAssembler.toView(updatedConnection, userName), 200, "", "Receive"))
+                );
             }
 
             return new ResponseEntity<>(HttpStatus.OK);
@@ -254,44 +361,36 @@ public class UserConversationController {
             UserDetails authUser = (UserDetails) authentication.getPrincipal();
             String participants = UserConnectionService.getSortedUserKey(authUser.getUsername(), userName);
             UserConnection userConnection = userConnectionService.getConnection(participants);
-            UserConversation lastConversation = userConversationService.getLastConversation(userConnection.getConversationsId(), authUser.getUsername());
+            UserConversation lastConversation = userConversationService.getLastConversation(participants, authUser.getUsername());
 
-            if (lastConversation != null && ids.contains(lastConversation.getId())) {
-                UserConversation lastConversationExcludeId = userConversationService.getLastConversationExcludeId(userConnection.getConversationsId(), new HashSet<>(ids), authUser.getUsername());
-                boolean isConversationNull = lastConversationExcludeId == null;
+            UserConnectionService.ConnectionUpdate connectionUpdate = userConnectionService.update(userConnection);
 
-                String message = isConversationNull ? null : lastConversationExcludeId.getMessage();
-                String conversationId = isConversationNull ? null : lastConversationExcludeId.getId();
-                LocalDateTime createdAt = isConversationNull ? null : lastConversationExcludeId.getCreatedAt();
-                String messageType = isConversationNull ? null : lastConversationExcludeId.getMessageType();
+            if (lastConversation != null && ids.contains(lastConversation.getId())) {
+                UserConversation lastConversationExcludeId = userConversationService.getLastConversationExcludeId(participants, new HashSet<>(ids), authUser.getUsername());
+                LocalDateTime createdAt = lastConversationExcludeId == null ? null : lastConversationExcludeId.getCreatedAt();
 
                 if (lastConversation.getSender().equals(authUser.getUsername()) || everyone) {
-                    userConnection.setUser1LastConversation(message)
-                            .setUser1LastConversationId(conversationId)
-                            .setUser1LastConversationAt(createdAt)
-                            .setUser1LastConversationType(messageType);
+                    connectionUpdate.user1LastConversation(lastConversationExcludeId, createdAt);
                 }
                 if (lastConversation.getReceiver().equals(authUser.getUsername()) || everyone) {
-                    userConnection.setUser2LastConversation(message)
-                            .setUser2LastConversationId(conversationId)
-                            .setUser2LastConversationAt(createdAt)
-                            .setUser2LastConversationType(messageType);
+                    connectionUpdate.user2LastConversation(lastConversationExcludeId, createdAt);
                 }
-            };
+            }
+
+            Map<String, Long> removedUnread = new HashMap<>();
 
             if (!everyone) {
                 List<String> deleteMany = new ArrayList<>();
-                Set<String> conversationIds = userConnection.getConversationsId();
                 Set<UserConversation> userConversations = new HashSet<>();
 
-                for (String id : ids) {
-                    UserConversation userConversation = userConversationService.getConversation(id).get();
+                for (UserConversation userConversation : userConversationService.getConversations(participants, ids)) {
+                    String id = userConversation.getId();
+                    boolean wasUnread = UserConversationService.isUnreadForReceiver(userConversation);
                     boolean isDeletedByOneUser = userConversation.getSender().equals(authUser.getUsername()) ?
                             userConversation.isMessageDeletedByUser2() :
                             userConversation.isMessageDeletedByUser1();
                     if (isDeletedByOneUser){
                         deleteMany.add(id);
-                        conversationIds.remove(id);
                     } else {
                         if (authUser.getUsername().equals(userConversation.getSender())){
                             userConversation.setMessageDeletedByUser1(true);
@@ -300,27 +399,38 @@ public class UserConversationController {
                         }
                         userConversations.add(userConversation);
                     }
+                    if (wasUnread && (isDeletedByOneUser || !UserConversationService.isUnreadForReceiver(userConversation))) {
+                        removedUnread.merge(userConversation.getReceiver(), 1L, Long::sum);
+                    }
                 }
 
                 if (!deleteMany.isEmpty()) {
-                    userConversationService.deleteManyConversation(deleteMany);
+                    userConversationService.deleteManyConversation(participants, deleteMany);
                 }
                 userConversationService.saveAllConversations(userConversations);
-                userConnection.setConversationsId(conversationIds);
-                userConnectionService.saveConnection(userConnection);
             } else {
-                Set<String> conversationsIds = userConnection.getConversationsId();
-                for (String id : ids) {
-                    conversationsIds.remove(id);
+                for (UserConversation userConversation : userConversationService.getConversations(participants, ids)) {
+                    if (UserConversationService.isUnreadForReceiver(userConversation)) {
+                        removedUnread.merge(userConversation.getReceiver(), 1L, Long::sum);
+                    }
                 }
-                userConnection.setConversationsId(conversationsIds);
-                userConversationService.deleteManyConversation(ids);
-                userConnectionService.saveConnection(userConnection);
+                userConversationService.deleteManyConversation(participants, ids);
             }
 
-            webSocketsController.notifyUser(authUser.getUsername(), List.of(new WebSocketsController.StatusResponse(userName, null, userConnection, 200, "", "Send")));
-            if ((userConnection.getUserName1().equals(userName) && userConnection.isUser1ChatOpened()) || (userConnection.getUserName2().equals(userName) && userConnection.isUser2ChatOpened())) {
-                webSocketsController.notifyUser(userName, List.of(new WebSocketsController.StatusResponse(authUser.getUsername(), null, userConnection, 200, "", "Receive")));
+            removedUnread.forEach((receiver, count) -> connectionUpdate.incrementUnread(receiver, -count));
+            UserConnection updatedConnection = userConnectionService.updateConnection(connectionUpdate);
+
+            chatEventService.notify(
+                    authUser.getUsername(),
+                    List.of(ChatEventService.messageDeleted(userName, ids, everyone, UserConnectionService.getUnreadCount(updatedConnection, authUser.getUsername()))),
+                    () -> List.of(new WebSocketsController.StatusResponse(userName, null, connectionViewAssembler.toView(updatedConnection, authUser.getUsername()), 200, "", "Send"))
+            );
+            if ((updatedConnection.getUserName1().equals(userName) && updatedConnection.isUser1ChatOpened()) || (updatedConnection.getUserName2().equals(userName) && updatedConnection.isUser2ChatOpened())) {
+                chatEventService.notify(
+                        userName,
+                        everyone ? List.of(ChatEventService.messageDeleted(authUser.getUsername(), ids, true, UserConnectionService.getUnreadCount(updatedConnection, userName))) : List.of(),
+                        () -> List.of(new WebSocketsController.StatusResponse(authUser.getUsername(), null, connectionViewAssembler.toView(updatedConnection, userName), 200, "", "Receive"))
+                );
             }
 
             return new ResponseEntity<>(HttpStatus.OK);
@@ -339,32 +449,22 @@ public class UserConversationController {
             String participants = UserConnectionService.getSortedUserKey(user.getUserName(), userName);
             UserConnection userConnection = userConnectionService.getConnection(participants);
 
+            LocalDateTime clearedAt = LocalDateTime.now();
+            UserConnectionService.ConnectionUpdate connectionUpdate = userConnectionService.update(userConnection)
+                    .chatCleared(user.getUserName(), clearedAt);
+
             if (userConnection.getUserName1().equals(user.getUserName())){
-                userConnection.setRecentChatClearedByUser1(LocalDateTime.now())
-                        .setUser2LastConversationId(null)
-                        .setUser2LastConversation(null)
-                        .setUser2LastConversationType(null)
-                        .setUser2LastConversationAt(null);
-            } else if (userConnection.getUserName2().equals(user.getUserName())) {
-                userConnection.setRecentChatClearedByUser2(LocalDateTime.now())
-                        .setUser1LastConversationId(null)
-                        .setUser1LastConversation(null)
-                        .setUser1LastConversationType(null)
-                        .setUser1LastConversationAt(null);
+                connectionUpdate.user2LastConversation(null, null);
+            } else {
+                connectionUpdate.user1LastConversation(null, null);
             }
 
-            userConnectionService.saveConnection(userConnection);
-
-            User receiver = userService.getUserByUserName(userName);
-            userConnection.setEmail(receiver.getEmail())
-                            .setProfilePicture(receiver.getProfilePicture())
-                            .setLoginStatus(receiver.getStatus())
-                            .setLastSeen(receiver.getLastSeen());
+            UserConnection updatedConnection = userConnectionService.updateConnection(connectionUpdate);
 
-            messagingTemplate.convertAndSendToUser(
+            chatEventService.notify(
                     user.getUserName(),
-                    "/queue/messages",
-                    List.of(new WebSocketsController.StatusResponse(userName, null, userConnection, 200, "", "Send"))
+                    List.of(ChatEventService.connectionChanged(userName).setChatClearedAt(clearedAt)),
+                    () -> List.of(new WebSocketsController.StatusResponse(userName, null, connectionViewAssembler.toView(updatedConnection, user.getUserName()), 200, "", "Send"))
             );
 
             return new ResponseEntity<>(HttpStatus.CREATED);
@@ -3,17 +3,22 @@ package com.example.chat.controller;
 import com.example.chat.entity.User;
 import com.example.chat.entity.UserConnection;
 import com.example.chat.entity.UserConversation;
+import com.example.chat.service.ChatEventService;
+import com.example.chat.service.ConnectionViewAssembler;
+import com.example.chat.service.MediaService;
 import com.example.chat.service.UserConnectionService;
 import com.example.chat.service.UserConversationService;
 import com.example.chat.service.UserService;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.messaging.handler.annotation.MessageMapping;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestBody;
 
@@ -23,8 +28,7 @@ import java.util.*;
 @Controller
 public class WebSocketsController {
 
-    @Autowired
-    private SimpMessagingTemplate messagingTemplate;
+    private static final Logger log = LoggerFactory.getLogger(WebSocketsController.class);
 
     @Autowired
     UserConnectionService userConnectionService;
@@ -35,18 +39,31 @@ public class WebSocketsController {
     @Autowired
     UserService userService;
 
+    @Autowired
+    ConnectionViewAssembler connectionViewAssembler;
+
+    @Autowired
+    ChatEventService chatEventService;
+
+    @Autowired
+    MediaService mediaService;
+
     @MessageMapping("/save-conversations")
     public ResponseEntity<?> saveConversations(@RequestBody List<UserConversation> conversations) {
 
-        Map<String, List<StatusResponse>> responseMap = processUserConversations(conversations);
+        Map<String, List<ChatEventService.ChatEvent>> events = new LinkedHashMap<>();
+        Map<String, List<StatusResponse>> responseMap = processUserConversations(conversations, events);
 
+        String sender = conversations.get(0).getSender();
+        String receiver = conversations.get(0).getReceiver();
         List<StatusResponse> senderResponses = responseMap.get("Send");
         List<StatusResponse> receiverResponses = responseMap.get("Receive");
 
-        if (receiverResponses != null){
-            notifyUser(conversations.get(0).getReceiver(), receiverResponses);
-        }
-        notifyUser(conversations.get(0).getSender(), senderResponses);
+        events.putIfAbsent(receiver, List.of());
+        events.putIfAbsent(sender, List.of());
+        events.forEach((userName, userEvents) -> chatEventService.notify(userName, userEvents, () ->
+                userName.equals(sender) ? senderResponses : userName.equals(receiver) ? receiverResponses : null
+        ));
 
         if (senderResponses == null || senderResponses.isEmpty()) {
             return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
@@ -58,122 +75,204 @@ public class WebSocketsController {
 
     }
 
-    public Map<String, List<StatusResponse>> processUserConversations(List<UserConversation> userConversations) {
+    /**
+     * @param events filled with the delta events for every recipient, keyed by userName
+     */
+    public Map<String, List<StatusResponse>> processUserConversations(List<UserConversation> userConversations, Map<String, List<ChatEventService.ChatEvent>> events) {
 
         Map<String, List<StatusResponse>> userStatusResponses = new HashMap<>();
 
+        // Group the frame by chat so each pair costs one connection read and one connection write
+        Map<String, List<UserConversation>> conversationsByParticipants = new LinkedHashMap<>();
         for (UserConversation userConversation : userConversations) {
+            String participants = UserConnectionService.getSortedUserKey(userConversation.getSender(), userConversation.getReceiver());
+            conversationsByParticipants.computeIfAbsent(participants, key -> new ArrayList<>())
+                    .add(userConversation.setParticipants(participants));
+        }
 
-            String sender = userConversation.getSender();
-            String receiver = userConversation.getReceiver();
+        Map<String, Boolean> onlineReceivers = new HashMap<>();
+        Map<String, UserConnection> connections = new LinkedHashMap<>();
+        Map<String, Integer> statusCodes = new HashMap<>();
+        List<UserConversation> accepted = new ArrayList<>();
 
-            try {
+        for (Map.Entry<String, List<UserConversation>> entry : conversationsByParticipants.entrySet()) {
 
-                String participants = UserConnectionService.getSortedUserKey(sender, receiver);
+            String participants = entry.getKey();
+            List<UserConversation> conversations = entry.getValue();
 
+            try {
+
+                // Cached: block changes replace the entry through updateConnection and evict it on other nodes
                 UserConnection connection = userConnectionService.getConnection(participants);
 
                 int statusCode = HttpStatus.OK.value();
 
-                boolean isBlocked = false;
-                boolean isChatOpened = false;
-
                 if (connection == null) {
 
+                    UserConversation first = conversations.get(0);
                     LocalDateTime now = LocalDateTime.now();
 
                     connection = new UserConnection()
-                            .setUserId1(userConversation.getSenderId())
-                            .setUserId2(userConversation.getReceiverId())
-                            .setUserName1(userConversation.getSender())
-                            .setUserName2(userConversation.getReceiver())
+                            .setUserId1(first.getSenderId())
+                            .setUserId2(first.getReceiverId())
+                            .setUserName1(first.getSender())
+                            .setUserName2(first.getReceiver())
                             .setParticipants(participants)
-                            .setUser1LastConversation(userConversation.getMessage())
-                            .setUser1LastConversationAt(now)
-                            .setUser2LastConversation(userConversation.getMessage())
-                            .setUser2LastConversationAt(now)
-                            .setConnectedAt(now)
-                            .setConversationsId(new HashSet<>());
+                            .setConnectedAt(now);
 
                     statusCode = HttpStatus.CREATED.value();
+                }
 
-                } else {
-                    if (connection.getUserName1().equals(sender)) {
-                        isBlocked = connection.isBlockedByUser2();
-                        isChatOpened = connection.isUser2ChatOpened();
-                    } else {
-                        isBlocked = connection.isBlockedByUser1();
-                        isChatOpened = connection.isUser1ChatOpened();
-                    }
+                for (UserConversation userConversation : conversations) {
 
-                    connection
-                            .setUser1LastConversation(userConversation.getMessage())
-                            .setUser1LastConversationAt(LocalDateTime.now());
-                    if (!isBlocked) {
-                        connection
-                                .setUser2LastConversation(userConversation.getMessage())
-                                .setUser2LastConversationAt(LocalDateTime.now());
+                    String receiver = userConversation.getReceiver();
+
+                    if (isBlockedFor(connection, userConversation.getSender())) {
+                        userConversation.setStatus("Sent");
+                        userConversation.setMessageDeletedByUser2(true);
+                    } else if (onlineReceivers.computeIfAbsent(receiver, userService::isUserOnline)) {
+                        userConversation.setStatus(isChatOpenedBy(connection, receiver) ? "Read" : "Delivered");
+                    } else {
+                        userConversation.setStatus("Sent");
                     }
                 }
 
-                if (isBlocked) {
-                    userConversation.setStatus("Sent");
-                    userConversation.setMessageDeletedByUser2(true);
-                } else if (userService.isUserOnline(userConversation.getReceiver())) {
-                    userConversation.setStatus(isChatOpened ? "Read" : "Delivered");
-                } else {
-                    userConversation.setStatus("Sent");
-                }
+                connections.put(participants, connection);
+                statusCodes.put(participants, statusCode);
+                accepted.addAll(conversations);
+
+            } catch (Exception e) {
+                log.error("Failed to process messages for {}", participants, e);
+                addFailures(userStatusResponses, events, conversations);
+            }
+        }
 
-                UserConversation conversation = userConversationService.saveConversation(userConversation);
+        try {
+            mediaService.attachPreviews(accepted);
+            userConversationService.insertConversations(accepted);
+        } catch (Exception e) {
+            log.error("Failed to insert {} messages", accepted.size(), e);
+            addFailures(userStatusResponses, events, accepted);
+            return userStatusResponses;
+        }
 
-                connection.getConversationsId().add(conversation.getId());
-                connection.setUser1LastConversationId(conversation.getId())
-                        .setUser1LastConversationType(conversation.getMessageType());
+        Set<String> userNames = new HashSet<>();
+        for (UserConversation conversation : accepted) {
+            userNames.add(conversation.getSender());
+            userNames.add(conversation.getReceiver());
+        }
+        Map<String, User> users = userService.getUsersByUserNames(userNames);
 
-                if (!isBlocked) {
-                    connection.setUser2LastConversationId(conversation.getId())
-                            .setUser2LastConversationType(conversation.getMessageType());
-                }
+        for (Map.Entry<String, UserConnection> entry : connections.entrySet()) {
 
-                UserConnection savedConnection = userConnectionService.saveConnection(connection);
+            String participants = entry.getKey();
+            List<UserConversation> conversations = conversationsByParticipants.get(participants);
+            int statusCode = statusCodes.get(participants);
 
-                User user = userService.getUserByUserName(receiver);
-                savedConnection
-                        .setProfilePicture(user.getProfilePicture())
-                        .setUserName(sender)
-                        .setLastSeen(user.getLastSeen())
-                        .setLoginStatus(user.getStatus())
-                        .setEmail(user.getEmail());
+            try {
 
-                userStatusResponses.putIfAbsent("Send", new ArrayList<>());
-                userStatusResponses.get("Send").add(new StatusResponse(receiver, conversation, savedConnection, statusCode, "Message Sent Successfully!", "Send"));
+                UserConnection savedConnection = saveLastConversations(entry.getValue(), conversations);
 
-                if (!isBlocked) {
-                    userStatusResponses.putIfAbsent("Receive", new ArrayList<>());
-                    userStatusResponses.get("Receive").add(new StatusResponse(sender, conversation, savedConnection, statusCode, "Message Sent Successfully!", "Receive"));
+                for (UserConversation conversation : conversations) {
+
+                    String sender = conversation.getSender();
+                    String receiver = conversation.getReceiver();
+                    boolean isBlocked = conversation.isMessageDeletedByUser2();
+
+                    ConnectionViewAssembler.ConnectionView senderView = connectionViewAssembler.toView(savedConnection, sender, users.get(receiver));
+
+                    userStatusResponses.putIfAbsent("Send", new ArrayList<>());
+                    userStatusResponses.get("Send").add(new StatusResponse(receiver, conversation, senderView, statusCode, "Message Sent Successfully!", "Send"));
+                    events.computeIfAbsent(sender, key -> new ArrayList<>())
+                            .add(ChatEventService.messageCreated(receiver, conversation, UserConnectionService.getUnreadCount(savedConnection, sender)));
+
+                    if (!isBlocked) {
+                        ConnectionViewAssembler.ConnectionView receiverView = connectionViewAssembler.toView(savedConnection, receiver, users.get(sender));
+
+                        userStatusResponses.putIfAbsent("Receive", new ArrayList<>());
+                        userStatusResponses.get("Receive").add(new StatusResponse(sender, conversation, receiverView, statusCode, "Message Sent Successfully!", "Receive"));
+                        events.computeIfAbsent(receiver, key -> new ArrayList<>())
+                                .add(ChatEventService.messageCreated(sender, conversation, UserConnectionService.getUnreadCount(savedConnection, receiver)));
+                    }
                 }
 
             } catch (Exception e) {
-                System.out.println(e + " <------------ ");
-                userStatusResponses.putIfAbsent("Send", new ArrayList<>());
-                userStatusResponses.putIfAbsent("Receive", new ArrayList<>());
-
-                userStatusResponses.get("Send").add(new StatusResponse(receiver, null, null, HttpStatus.BAD_REQUEST.value(), "Message Sending Failed!", "Send"));
-                userStatusResponses.get("Receive").add(new StatusResponse(sender, null, null, HttpStatus.BAD_REQUEST.value(), "Message Sending Failed!", "Receive"));
+                log.error("Failed to process messages for {}", participants, e);
+                addFailures(userStatusResponses, events, conversations);
             }
         }
 
         return userStatusResponses;
     }
 
-    public void notifyUser(String username, List<StatusResponse> statusResponses) {
+    private static boolean isBlockedFor(UserConnection connection, String sender) {
+        return connection.getUserName1().equals(sender) ? connection.isBlockedByUser2() : connection.isBlockedByUser1();
+    }
+
+    private static boolean isChatOpenedBy(UserConnection connection, String userName) {
+        return connection.getUserName1().equals(userName) ? connection.isUser1ChatOpened() : connection.isUser2ChatOpened();
+    }
+
+    private static void addFailures(Map<String, List<StatusResponse>> userStatusResponses, Map<String, List<ChatEventService.ChatEvent>> events, List<UserConversation> conversations) {
+        userStatusResponses.putIfAbsent("Send", new ArrayList<>());
+        userStatusResponses.putIfAbsent("Receive", new ArrayList<>());
+
+        for (UserConversation conversation : conversations) {
+            userStatusResponses.get("Send").add(new StatusResponse(conversation.getReceiver(), null, null, HttpStatus.BAD_REQUEST.value(), "Message Sending Failed!", "Send"));
+            userStatusResponses.get("Receive").add(new StatusResponse(conversation.getSender(), null, null, HttpStatus.BAD_REQUEST.value(), "Message Sending Failed!", "Receive"));
+            events.computeIfAbsent(conversation.getSender(), key -> new ArrayList<>())
+                    .add(ChatEventService.messageRejected(conversation.getReceiver(), conversation));
+        }
+    }
+
+    // Applies the last message and the unread counts of a whole batch in one atomic write
+    private UserConnection saveLastConversations(UserConnection connection, List<UserConversation> conversations) {
+        UserConversation lastConversation = conversations.get(conversations.size() - 1);
+        UserConversation lastVisibleConversation = null;
+        Map<String, Long> unread = new HashMap<>();
+
+        for (UserConversation conversation : conversations) {
+            if (!conversation.isMessageDeletedByUser2()) {
+                lastVisibleConversation = conversation;
+                if (!conversation.getStatus().equals("Read")) {
+                    unread.merge(conversation.getReceiver(), 1L, Long::sum);
+                }
+            }
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+
+        if (connection.getId() == null) {
+            connection.setUser1LastConversation(lastConversation.getMessage())
+                    .setUser1LastConversationAt(now)
+                    .setUser1LastConversationId(lastConversation.getId())
+                    .setUser1LastConversationType(lastConversation.getMessageType())
+                    .setUnReadMsgsOfUser1(unread.getOrDefault(connection.getUserName1(), 0L))
+                    .setUnReadMsgsOfUser2(unread.getOrDefault(connection.getUserName2(), 0L));
+
+            if (lastVisibleConversation != null) {
+                connection.setUser2LastConversation(lastVisibleConversation.getMessage())
+                        .setUser2LastConversationAt(now)
+                        .setUser2LastConversationId(lastVisibleConversation.getId())
+                        .setUser2LastConversationType(lastVisibleConversation.getMessageType());
+            }
+
+            try {
+                return userConnectionService.saveConnection(connection);
+            } catch (DuplicateKeyException e) {
+                // The other participant created the connection first; update theirs instead
+                connection = userConnectionService.getConnection(connection.getParticipants());
+            }
+        }
+
+        UserConnectionService.ConnectionUpdate connectionUpdate = userConnectionService.update(connection)
+                .user1LastConversation(lastConversation, now);
+        if (lastVisibleConversation != null) {
+            connectionUpdate.user2LastConversation(lastVisibleConversation, now);
+        }
+        unread.forEach(connectionUpdate::incrementUnread);
 
-        messagingTemplate.convertAndSendToUser(
-                username,
-                "/queue/messages",
-                statusResponses
-        );
+        return userConnectionService.updateConnection(connectionUpdate);
     }
 
 
@@ -183,7 +282,7 @@ public class WebSocketsController {
     public static class StatusResponse {
         private String userName;
         private UserConversation conversation;
-        private UserConnection connection;
+        private ConnectionViewAssembler.ConnectionView connection;
         private int statusCode;
         private String message;
         private String responseType;
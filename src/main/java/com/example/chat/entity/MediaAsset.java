@@ -0,0 +1,36 @@
+package com.example.chat.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * One stored file, keyed by the SHA-256 of its content, with the number of uploads that
+ * resolved to it. The file is only removed from storage when refCount drops to zero.
+ */
+@Document
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class MediaAsset {
+
+    @Id
+    private String id;
+
+    @Indexed(unique = true)
+    private String url;
+
+    private long size;
+    private long refCount;
+
+    // Filled in by MediaPreviewService once the image has been processed
+    private String thumbnailUrl;
+    private String placeholder;
+
+    private LocalDateTime createdAt = LocalDateTime.now();
+}
@@ -0,0 +1,28 @@
+package com.example.chat.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * A WebSocket ticket nonce that has been redeemed, shared by every node. Inserting the same nonce
+ * twice fails on the _id, which is what makes a ticket single-use; MongoDB removes the document
+ * once the ticket would have expired anyway.
+ */
+@Document
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class UsedTicketNonce {
+
+    @Id
+    private String id;
+
+    @Indexed(expireAfterSeconds = 0)
+    private Date expiresAt;
+}
@@ -1,5 +1,6 @@
 package com.example.chat.entity;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.annotation.Nonnull;
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -24,6 +25,11 @@ public class User {
     @Indexed
     private String userName;
 
+    // Lowercase copy of userName for indexed, case-insensitive prefix search; kept in sync by setUserName
+    @JsonIgnore
+    @Indexed
+    private String userNameLower;
+
     @Nonnull
     @Indexed(unique = true)
     private String email;
@@ -34,7 +40,15 @@ public class User {
     private String status = "offline";
     private boolean isActive = true;
     private List<String> roles = new ArrayList<>(List.of("User"));
+
+    // Carried in every JWT; incrementing it revokes all tokens issued before
+    private long tokenVersion;
     private LocalDateTime lastSeen;
     private LocalDateTime createdAt = LocalDateTime.now();
 
+    public void setUserName(String userName) {
+        this.userName = userName;
+        this.userNameLower = userName != null ? userName.toLowerCase(Locale.ROOT) : null;
+    }
+
 }
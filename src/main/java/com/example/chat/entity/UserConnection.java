@@ -6,6 +6,7 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.experimental.Accessors;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
@@ -22,6 +23,9 @@ public class UserConnection {
     @Id
     private String id;
 
+    @Version
+    private Long version;
+
     @Indexed(unique = true)
     private String participants;
 
@@ -41,9 +45,6 @@ public class UserConnection {
     @Indexed
     private String userName2;
 
-    @Indexed
-    private Set<String> conversationsId;
-
     private String user1LastConversation;
     private String user1LastConversationId;
     private LocalDateTime user1LastConversationAt;
@@ -54,13 +55,9 @@ public class UserConnection {
     private LocalDateTime user2LastConversationAt;
     private String user2LastConversationType;
 
-    private String userName;
-    private String email;
-    private String profilePicture;
-    private LocalDateTime lastSeen;
-    private String unReadMsgsOfUser1;
-    private String unReadMsgsOfUser2;
-    private String loginStatus;
+    // Unread messages received by userName1 / userName2, maintained with $inc and reset with $set
+    private long unReadMsgsOfUser1;
+    private long unReadMsgsOfUser2;
 
     private boolean isBlockedByUser1 = false;
     private boolean isBlockedByUser2 = false;
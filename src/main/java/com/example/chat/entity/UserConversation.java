@@ -6,12 +6,15 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.experimental.Accessors;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.time.LocalDateTime;
 
 @Document
+@CompoundIndex(name = "participants_createdAt_id", def = "{ 'participants': 1, 'createdAt': -1, '_id': -1 }")
 @AllArgsConstructor
 @NoArgsConstructor
 @Data
@@ -21,6 +24,8 @@ public class UserConversation {
     @Id
     private String id;
 
+    private String participants;
+
     @Nonnull
     private String sender;
 
@@ -45,6 +50,13 @@ public class UserConversation {
 
     private String fileName;
     private String fileSize;
+
+    // Set when message is the URL of an indexed media asset; thumbnailUrl and placeholder may arrive later
+    @Indexed(sparse = true)
+    private String mediaId;
+    private String thumbnailUrl;
+    private String placeholder;
+
     private boolean isReplied = false;
     private String repliedBy;
     private String repliedMessageId;
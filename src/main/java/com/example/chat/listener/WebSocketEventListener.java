@@ -1,51 +1,52 @@
 package com.example.chat.listener;
 
-import com.example.chat.entity.User;
-import com.example.chat.service.LoginService;
-import com.example.chat.service.UserService;
+import com.example.chat.service.PresenceRegistry;
+import com.example.chat.service.PresenceService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.messaging.SessionConnectedEvent;
 import org.springframework.web.socket.messaging.SessionDisconnectEvent;
 
 import java.security.Principal;
-import java.time.LocalDateTime;
+import java.util.Map;
 
 @Component
 public class WebSocketEventListener {
 
+    private static final Logger log = LoggerFactory.getLogger(WebSocketEventListener.class);
+
     @Autowired
-    private UserService userService;
+    private PresenceService presenceService;
 
     @Autowired
-    private LoginService loginService;
+    private PresenceRegistry presenceRegistry;
 
     // Listen for new WebSocket connections
     @EventListener
     public void onSessionConnected(SessionConnectedEvent event) {
 
         Principal subscriber = event.getUser();
-        assert subscriber != null;
+        if (subscriber == null) {
+            return;
+        }
         String userName = subscriber.getName();
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(event.getMessage().getHeaders());
 
-        try {
-            User user = userService.getUserByUserName(userName);
-            if (user != null) {
-                user.setStatus("online");
-                user.setLastSeen(LocalDateTime.now());
-                userService.saveUser(user);  // Save the updated user back to the database
-                loginService.notifyLoginStatus(user.getUserName(), "online");
-                System.out.println(userName + " connected at " + LocalDateTime.now());
-            } else {
-                // Handle the case where the user is not found
-                System.out.println("User not found: " + userName);
-            }
-        } catch (Exception e) {
-            // Log any errors
-            System.err.println("Error handling connection for user: " + userName);
-            e.printStackTrace();
+        // Session attributes travel on the original CONNECT frame, not on the CONNECT_ACK
+        Message<?> connectMessage = (Message<?>) event.getMessage().getHeaders().get(SimpMessageHeaderAccessor.CONNECT_MESSAGE_HEADER);
+        Map<String, Object> sessionAttributes = connectMessage != null ? SimpMessageHeaderAccessor.getSessionAttributes(connectMessage.getHeaders()) : null;
+        boolean deltaEvents = sessionAttributes != null && Boolean.TRUE.equals(sessionAttributes.get("deltaEvents"));
+
+        // Only the first session of a user (across nodes) changes presence; the fan-out runs off the STOMP event thread
+        if (presenceRegistry.addSession(userName, sessionId, deltaEvents) && !presenceRegistry.hasOtherSessions(userName, sessionId)) {
+            presenceService.publish(userName, "online");
         }
+        log.debug("{} connected with session {}", userName, sessionId);
     }
 
     // Listen for WebSocket disconnections
@@ -53,24 +54,14 @@ public class WebSocketEventListener {
     public void onSessionDisconnected(SessionDisconnectEvent event) {
 
         Principal subscriber = event.getUser();
+        if (subscriber == null) {
+            return;
+        }
         String userName = subscriber.getName();
 
-        try {
-            User user = userService.getUserByUserName(userName);
-            if (user != null) {
-                user.setStatus("offline");
-                user.setLastSeen(LocalDateTime.now());
-                userService.saveUser(user);  // Save the updated user back to the database
-                loginService.notifyLoginStatus(user.getUserName(), "offline");
-                System.out.println(userName + " disconnected at " + LocalDateTime.now());
-            } else {
-                // Handle the case where the user is not found
-                System.out.println("User not found: " + userName);
-            }
-        } catch (Exception e) {
-            // Log any errors
-            System.err.println("Error handling disconnection for user: " + userName);
-            e.printStackTrace();
+        if (presenceRegistry.removeSession(userName, event.getSessionId()) && !presenceRegistry.hasOtherSessions(userName, event.getSessionId())) {
+            presenceService.publish(userName, "offline");
         }
+        log.debug("{} disconnected from session {}", userName, event.getSessionId());
     }
 }
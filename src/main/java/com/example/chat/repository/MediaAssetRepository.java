@@ -0,0 +1,15 @@
+package com.example.chat.repository;
+
+import com.example.chat.entity.MediaAsset;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface MediaAssetRepository extends MongoRepository<MediaAsset, String> {
+
+    MediaAsset findByUrl(String url);
+
+    List<MediaAsset> findByUrlIn(Collection<String> urls);
+
+}
@@ -1,11 +1,50 @@
 package com.example.chat.repository;
 
 import com.example.chat.entity.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.mongodb.repository.Aggregation;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.data.mongodb.repository.Update;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 
 public interface UserConversationRepository extends MongoRepository<UserConversation, String> {
 
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    class UnreadCount {
+        private String participants;
+        private String receiver;
+        private long count;
+    }
+
+    // Unread messages per chat and receiver, skipping messages the receiver deleted on their side
+    @Aggregation(pipeline = {
+            "{ '$match': { 'participants': { '$in': ?0 }, 'status': { '$ne': 'Read' }, 'messageDeletedByUser2': { '$ne': true } } }",
+            "{ '$group': { '_id': { 'participants': '$participants', 'receiver': '$receiver' }, 'count': { '$sum': 1 } } }",
+            "{ '$project': { '_id': 0, 'participants': '$_id.participants', 'receiver': '$_id.receiver', 'count': 1 } }"
+    })
+    List<UnreadCount> countUnreadByReceiver(Collection<String> participants);
+
+    List<UserConversation> findByParticipantsOrderByCreatedAtDescIdDesc(String participants);
+
+    List<UserConversation> findByParticipantsAndIdIn(String participants, Collection<String> ids);
+
+    void deleteByParticipantsAndIdIn(String participants, Collection<String> ids);
+
+    @Query("{ 'participants': { '$in': ?0 }, 'receiver': ?1, 'status': 'Sent', 'createdAt': { '$lte': ?2 } }")
+    @Update("{ '$set': { 'status': 'Delivered' } }")
+    long markDelivered(Collection<String> participants, String receiver, LocalDateTime watermark);
+
+    @Query("{ 'participants': ?0, 'receiver': ?1, 'status': { '$ne': 'Read' }, 'messageDeletedByUser2': { '$ne': true }, 'createdAt': { '$lte': ?2 } }")
+    @Update("{ '$set': { 'status': 'Read' } }")
+    long markRead(String participants, String receiver, LocalDateTime watermark);
+
 }
\ No newline at end of file
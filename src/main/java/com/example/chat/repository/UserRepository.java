@@ -4,6 +4,8 @@ import com.example.chat.entity.*;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.mongodb.repository.Query;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 
@@ -13,4 +15,9 @@ public interface UserRepository extends MongoRepository<User, String> {
 
     User findUserByEmail(String email);
 
+    List<User> findByUserNameIn(Collection<String> userNames);
+
+    @Query(value = "{ 'userName': ?0 }", fields = "{ 'tokenVersion': 1 }")
+    User findTokenVersionByUserName(String userName);
+
 }
@@ -1,5 +1,7 @@
 package com.example.chat.security;
 
+import com.example.chat.service.TokenVersionCache;
+import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.Cookie;
@@ -9,7 +11,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 
@@ -22,6 +26,7 @@ public class JwtCsrfAuthenticationFilter extends OncePerRequestFilter {
 
     @Autowired private JwtUtil jwtUtil;
     @Autowired private UserDetailsService userDetailsService;
+    @Autowired private TokenVersionCache tokenVersionCache;
 
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
@@ -52,9 +57,9 @@ public class JwtCsrfAuthenticationFilter extends OncePerRequestFilter {
 //                .map(Cookie::getName).toList());
 
         if (jwtToken != null && csrfHeader != null){ // && (csrfHeader.equals(csrfCookie) || csrfCookieExists)) {
-            String username = jwtUtil.validateToken(jwtToken);
-            if (username != null) {
-                UserDetails userDetails = userDetailsService.loadUserByUsername(username);
+            Claims claims = jwtUtil.parseClaims(jwtToken);
+            UserDetails userDetails = claims != null ? getUserDetails(claims) : null;
+            if (userDetails != null) {
                 UsernamePasswordAuthenticationToken authToken =
                         new UsernamePasswordAuthenticationToken(userDetails, null, userDetails.getAuthorities());
                 SecurityContextHolder.getContext().setAuthentication(authToken);
@@ -64,6 +69,36 @@ public class JwtCsrfAuthenticationFilter extends OncePerRequestFilter {
         filterChain.doFilter(request, response);
     }
 
+    /**
+     * Builds the principal from the token alone; only tokens issued before roles were embedded
+     * still load the user. Returns null for revoked tokens.
+     */
+    private UserDetails getUserDetails(Claims claims) {
+        String username = claims.getSubject();
+        if (username == null) {
+            return null;
+        }
+
+        Number tokenVersion = claims.get(JwtUtil.TOKEN_VERSION_CLAIM, Number.class);
+        if (!tokenVersionCache.isCurrent(username, tokenVersion != null ? tokenVersion.longValue() : 0)) {
+            return null;
+        }
+
+        List<?> roles = claims.get(JwtUtil.ROLES_CLAIM, List.class);
+        if (roles == null) {
+            try {
+                return userDetailsService.loadUserByUsername(username);
+            } catch (UsernameNotFoundException e) {
+                return null;
+            }
+        }
+
+        return User.withUsername(username)
+                .password("")
+                .roles(roles.stream().map(String::valueOf).toArray(String[]::new))
+                .build();
+    }
+
     private String getToken(HttpServletRequest request) {
         String authHeader = request.getHeader("Authorization");
         if (authHeader != null && authHeader.startsWith("Bearer ")) {
@@ -1,6 +1,5 @@
 package com.example.chat.security;
 
-import com.example.chat.service.UserService;
 import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.server.ServerHttpRequest;
@@ -11,7 +10,6 @@ import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.WebSocketHandler;
 import org.springframework.web.socket.server.HandshakeInterceptor;
@@ -23,10 +21,7 @@ import java.util.Map;
 public class JwtHandshakeInterceptor implements HandshakeInterceptor {
 
     @Autowired
-    PasswordEncoder encoder;
-
-    @Autowired
-    UserService userService;
+    WebSocketTicketService webSocketTicketService;
 
     @Override
     public boolean beforeHandshake(
@@ -37,13 +32,11 @@ public class JwtHandshakeInterceptor implements HandshakeInterceptor {
 
         if (request instanceof ServletServerHttpRequest servletRequest) {
             HttpServletRequest httpServletRequest = servletRequest.getServletRequest();
-            String token = httpServletRequest.getParameter("key");  // e.g., ws://.../ws-chat?token=abc.def.ghi
-            String sender = httpServletRequest.getParameter("sender");  // e.g., ws://.../ws-chat?sender=userName&token=abc.def.ghi
-
-            if (token != null && sender != null) {
-                String storedToken = userService.getUserByUserName(sender).getId();
+            String ticket = httpServletRequest.getParameter("key");  // e.g., ws://.../ws-chat?key=<ticket from /user/ws-ticket>
+            String sender = httpServletRequest.getParameter("sender");  // e.g., ws://.../ws-chat?sender=userName&key=<ticket>
 
-                if (storedToken != null && encoder.matches(storedToken, token)) {
+            if (ticket != null && sender != null) {
+                if (webSocketTicketService.redeem(ticket, sender) != null) {
                     // Token is valid, create Authentication object
                     List<GrantedAuthority> authorities = List.of(new SimpleGrantedAuthority("ROLE_USER")); // adjust roles as needed
                     Authentication auth = new UsernamePasswordAuthenticationToken(sender, null, authorities);
@@ -53,6 +46,8 @@ public class JwtHandshakeInterceptor implements HandshakeInterceptor {
                     // Store in attributes for later access
                     attributes.put("sender", sender);
                     attributes.put("auth", true);
+                    // Clients opt in to compact events with ws://.../ws-chat?events=delta
+                    attributes.put("deltaEvents", "delta".equals(httpServletRequest.getParameter("events")));
                     return true;
                 }
             }
@@ -1,49 +1,151 @@
 package com.example.chat.security;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 
 import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
-import java.util.Date;
-import java.util.Base64;
+import java.util.*;
 
+/**
+ * Signs and verifies JWTs with HMAC keys from chat.jwt.keys.&lt;kid&gt;. New tokens are signed with
+ * chat.jwt.active-key-id and name it in the kid header; any configured key is accepted, so a key can
+ * be rotated out by switching the active id and removing the old one after a token lifetime. Keys and
+ * the parser are built once, and successfully verified tokens are remembered by digest until they expire.
+ */
 @Component
 public class JwtUtil {
 
-    private final String secretKey = Base64.getEncoder().encodeToString("MySuperSecretKey123456!".getBytes());
+    public static final String ROLES_CLAIM = "roles";
+    public static final String TOKEN_VERSION_CLAIM = "ver";
 
-    // Create the signing key from the secret key string
-    private SecretKey getSigningKey() {
-        return Keys.hmacShaKeyFor(secretKey.getBytes());
+    // The secret used before keys became configurable, so tokens already handed out stay valid
+    private static final String DEFAULT_KEY_ID = "default";
+    private static final String DEFAULT_SECRET = Base64.getEncoder().encodeToString("MySuperSecretKey123456!".getBytes());
+
+    private final Map<String, SecretKey> keys;
+    private final String activeKeyId;
+    private final SecretKey activeKey;
+    private final JwtParser parser;
+    private final Duration expiration;
+    private final Cache<String, Claims> validatedTokens;
+
+    public JwtUtil(Environment environment,
+                   MeterRegistry meterRegistry,
+                   @Value("${chat.jwt.active-key-id:" + DEFAULT_KEY_ID + "}") String activeKeyId,
+                   @Value("${chat.jwt.expiration:1d}") Duration expiration,
+                   @Value("${chat.jwt.validated-cache.maximum-size:50000}") long validatedCacheSize) {
+        Map<String, String> secrets = Binder.get(environment)
+                .bind("chat.jwt.keys", Bindable.mapOf(String.class, String.class))
+                .orElseGet(() -> Map.of(DEFAULT_KEY_ID, DEFAULT_SECRET));
+
+        Map<String, SecretKey> keys = new HashMap<>();
+        // Keys.hmacShaKeyFor rejects secrets shorter than 256 bits
+        secrets.forEach((kid, secret) -> keys.put(kid, Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8))));
+        if (!keys.containsKey(activeKeyId)) {
+            throw new IllegalStateException("chat.jwt.keys has no key for active key id " + activeKeyId);
+        }
+
+        this.keys = Map.copyOf(keys);
+        this.activeKeyId = activeKeyId;
+        this.activeKey = keys.get(activeKeyId);
+        this.expiration = expiration;
+        this.parser = Jwts.parserBuilder()
+                .setSigningKeyResolver(new SigningKeyResolverAdapter() {
+                    @Override
+                    public Key resolveSigningKey(JwsHeader header, Claims claims) {
+                        // Tokens issued before key ids were added carry no kid
+                        String kid = header.getKeyId() != null ? header.getKeyId() : DEFAULT_KEY_ID;
+                        Key key = JwtUtil.this.keys.get(kid);
+                        if (key == null) {
+                            throw new UnsupportedJwtException("Unknown key id " + kid);
+                        }
+                        return key;
+                    }
+                })
+                .build();
+
+        this.validatedTokens = Caffeine.newBuilder()
+                .maximumSize(validatedCacheSize)
+                .expireAfter(new Expiry<String, Claims>() {
+                    @Override
+                    public long expireAfterCreate(String digest, Claims claims, long currentTime) {
+                        return remainingLifetime(claims);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String digest, Claims claims, long currentTime, long currentDuration) {
+                        return remainingLifetime(claims);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String digest, Claims claims, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, validatedTokens, "validatedTokens");
     }
 
-    public String generateToken(String username) {
+    /**
+     * Roles and the user's token version travel in the token, so requests can be authenticated
+     * without loading the user.
+     */
+    public String generateToken(String username, List<String> roles, long tokenVersion) {
         long nowMillis = System.currentTimeMillis();
-        Date now = new Date(nowMillis);
-        // 1 hour
-        long expiration = Duration.ofDays(1).toMillis();
-        Date exp = new Date(nowMillis + expiration);
 
         return Jwts.builder()
-                .claim("sub", username)  // Setting the 'sub' claim
-                .claim("iat", now.getTime())  // Setting the 'iat' claim for issued time
-                .claim("exp", exp.getTime())  // Setting the 'exp' claim for expiration time
-                .signWith(getSigningKey()) // use the `signWith()` method here, which is fine
+                .setHeaderParam(JwsHeader.KEY_ID, activeKeyId)
+                .setSubject(username)
+                .setIssuedAt(new Date(nowMillis))
+                .setExpiration(new Date(nowMillis + expiration.toMillis()))
+                .claim(ROLES_CLAIM, roles)
+                .claim(TOKEN_VERSION_CLAIM, tokenVersion)
+                .signWith(activeKey)
                 .compact();
     }
 
     public String validateToken(String token) {
-        try {
-            JwtParser parser = Jwts.parserBuilder()
-                    .setSigningKey(getSigningKey())
-                    .build();
+        Claims claims = parseClaims(token);
+        return claims != null ? claims.getSubject() : "Token is invalid!"; // Token is invalid
+    }
 
-            Jws<Claims> jws = parser.parseClaimsJws(token); // Will throw if expired or invalid
-            Claims claims = jws.getBody();
+    /**
+     * @return the verified claims, or null when the token is expired or invalid. Callers must not modify them.
+     */
+    public Claims parseClaims(String token) {
+        if (token == null) {
+            return null;
+        }
 
-            return claims.getSubject(); // Extract username (subject)
+        String digest = digest(token);
+        Claims cached = validatedTokens.getIfPresent(digest);
+        if (cached != null) {
+            return cached;
+        }
+
+        try {
+            Claims claims = parser.parseClaimsJws(token).getBody(); // Will throw if expired or invalid
+            if (claims.getExpiration() != null) {
+                validatedTokens.put(digest, claims);
+            }
+            return claims;
 
         } catch (ExpiredJwtException e) {
             System.out.println("Token expired: " + e.getMessage());
@@ -57,7 +159,22 @@ public class JwtUtil {
             System.out.println("Token validation failed: " + e.getMessage());
         }
 
-        return "Token is invalid!"; // Token is invalid
+        return null;
+    }
+
+    // Capped at the token lifetime: older tokens wrote exp in milliseconds, which reads as a date far in the future
+    private long remainingLifetime(Claims claims) {
+        long millis = claims.getExpiration().getTime() - System.currentTimeMillis();
+        return Duration.ofMillis(Math.max(0, Math.min(millis, expiration.toMillis()))).toNanos();
+    }
+
+    private static String digest(String token) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(sha256.digest(token.getBytes(StandardCharsets.US_ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
 }
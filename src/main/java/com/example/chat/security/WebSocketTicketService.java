@@ -0,0 +1,134 @@
+package com.example.chat.security;
+
+import com.example.chat.entity.UsedTicketNonce;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * Short-lived, single-use tickets for opening a WebSocket: {@code payload.signature}, where the
+ * payload holds the userName, an expiry and a random nonce, and the signature is HMAC-SHA256 over
+ * it. Checking one costs an HMAC and one insert instead of a user load and a BCrypt match.
+ * Used nonces are recorded in MongoDB, so a ticket is single-use across all nodes.
+ */
+@Component
+public class WebSocketTicketService {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final SecretKeySpec key;
+    private final Duration ttl;
+    private final SecureRandom random = new SecureRandom();
+    private final MongoTemplate mongoTemplate;
+
+    private final ThreadLocal<Mac> macs = ThreadLocal.withInitial(this::newMac);
+
+    public WebSocketTicketService(@Value("${chat.websocket.ticket.secret:}") String secret,
+                                  @Value("${chat.websocket.ticket.ttl:60s}") Duration ttl,
+                                  @Value("${chat.broker.mode:simple}") String brokerMode,
+                                  MongoTemplate mongoTemplate) {
+        byte[] keyBytes;
+        if (secret.isEmpty()) {
+            if ("relay".equalsIgnoreCase(brokerMode)) {
+                throw new IllegalStateException("chat.websocket.ticket.secret must be set to the same value on every node when chat.broker.mode=relay");
+            }
+            // Only valid on this node, which is fine while there is only one
+            keyBytes = new byte[32];
+            random.nextBytes(keyBytes);
+        } else {
+            keyBytes = secret.getBytes(StandardCharsets.UTF_8);
+        }
+        this.key = new SecretKeySpec(keyBytes, ALGORITHM);
+        this.ttl = ttl;
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    public String issue(String userName) {
+        byte[] nonce = new byte[16];
+        random.nextBytes(nonce);
+
+        long expiresAt = System.currentTimeMillis() + ttl.toMillis();
+        String payload = base64(userName.getBytes(StandardCharsets.UTF_8)) + ":" + expiresAt + ":" + base64(nonce);
+        String encodedPayload = base64(payload.getBytes(StandardCharsets.UTF_8));
+
+        return encodedPayload + "." + base64(sign(encodedPayload));
+    }
+
+    /**
+     * @return the userName the ticket was issued to, or null if it is forged, expired, already used or for another user
+     */
+    public String redeem(String ticket, String userName) {
+        if (ticket == null) {
+            return null;
+        }
+        int dot = ticket.indexOf('.');
+        if (dot < 0) {
+            return null;
+        }
+
+        String encodedPayload = ticket.substring(0, dot);
+        byte[] signature;
+        String[] parts;
+        try {
+            signature = Base64.getUrlDecoder().decode(ticket.substring(dot + 1));
+            parts = new String(Base64.getUrlDecoder().decode(encodedPayload), StandardCharsets.UTF_8).split(":");
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        if (!MessageDigest.isEqual(sign(encodedPayload), signature) || parts.length != 3) {
+            return null;
+        }
+
+        String ticketUser;
+        long expiresAt;
+        try {
+            ticketUser = new String(Base64.getUrlDecoder().decode(parts[0]), StandardCharsets.UTF_8);
+            expiresAt = Long.parseLong(parts[1]);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        if (expiresAt < System.currentTimeMillis() || (userName != null && !userName.equals(ticketUser))) {
+            return null;
+        }
+
+        // Single use: only the first redemption of a nonce wins, on whichever node it happens
+        try {
+            mongoTemplate.insert(new UsedTicketNonce(parts[2], new Date(expiresAt)));
+        } catch (DuplicateKeyException e) {
+            return null;
+        }
+        return ticketUser;
+    }
+
+    private byte[] sign(String payload) {
+        return macs.get().doFinal(payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String base64(byte[] bytes) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+}
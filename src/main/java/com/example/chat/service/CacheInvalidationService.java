@@ -0,0 +1,227 @@
+package com.example.chat.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.converter.StringMessageConverter;
+import org.springframework.messaging.simp.stomp.*;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Type;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the node-local caches (users, token versions, connections) coherent when several nodes
+ * share a broker in relay mode. Every local invalidation is published to a broker topic, and the
+ * other nodes drop the same key from their own copy. In simple mode there is only one node and
+ * nothing is sent.
+ * <p>
+ * Delivery is best effort. A node clears all its caches whenever it (re)connects, since it may
+ * have missed invalidations, and asks every other node to do the same if it could not publish
+ * some of its own meanwhile. The cache expiries bound any remaining gap.
+ * Security decisions do not rely on this: they read from the database directly.
+ */
+@Component
+public class CacheInvalidationService {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheInvalidationService.class);
+
+    public static final String DESTINATION = "/topic/chat.cache-invalidation";
+
+    private static final String ALL_CACHES = "*";
+    private static final Duration RECONNECT_DELAY = Duration.ofSeconds(5);
+
+    private record Listener(Consumer<String> invalidate, Runnable invalidateAll) {
+    }
+
+    private final boolean enabled;
+    private final String host;
+    private final int port;
+    private final String login;
+    private final String passcode;
+    private final String virtualHost;
+
+    // Tells this node's own invalidations apart when they come back from the topic
+    private final String nodeId = UUID.randomUUID().toString();
+    private final Map<String, Listener> listeners = new ConcurrentHashMap<>();
+    private final AtomicBoolean reconnectScheduled = new AtomicBoolean();
+
+    private ThreadPoolTaskScheduler scheduler;
+    private ReactorNettyTcpStompClient client;
+    private volatile StompSession session;
+    private volatile boolean running;
+    private volatile boolean missedPublish;
+
+    public CacheInvalidationService(@Value("${chat.broker.mode:simple}") String brokerMode,
+                                    @Value("${chat.broker.relay.host:localhost}") String host,
+                                    @Value("${chat.broker.relay.port:61613}") int port,
+                                    @Value("${chat.broker.relay.system-login:guest}") String login,
+                                    @Value("${chat.broker.relay.system-passcode:guest}") String passcode,
+                                    @Value("${chat.broker.relay.virtual-host:}") String virtualHost) {
+        this.enabled = "relay".equalsIgnoreCase(brokerMode);
+        this.host = host;
+        this.port = port;
+        this.login = login;
+        this.passcode = passcode;
+        this.virtualHost = virtualHost;
+    }
+
+    /**
+     * @param invalidate    drops one key from the local cache only
+     * @param invalidateAll clears the local cache, after invalidations may have been missed
+     */
+    public void register(String cache, Consumer<String> invalidate, Runnable invalidateAll) {
+        listeners.put(cache, new Listener(invalidate, invalidateAll));
+    }
+
+    /**
+     * Tells the other nodes to drop {@code key} from {@code cache}; the caller invalidates its own copy.
+     */
+    public void publish(String cache, String key) {
+        if (key != null) {
+            publish(cache, List.of(key));
+        }
+    }
+
+    public void publish(String cache, Collection<String> keys) {
+        if (!enabled || keys.isEmpty()) {
+            return;
+        }
+        StompSession current = session;
+        if (current == null || !current.isConnected()) {
+            missedPublish = true;
+            return;
+        }
+        try {
+            current.send(DESTINATION, nodeId + "\n" + cache + "\n" + String.join("\n", keys));
+        } catch (Exception e) {
+            missedPublish = true;
+            log.warn("Failed to publish invalidation of {} {} entries", keys.size(), cache, e);
+        }
+    }
+
+    public boolean isConnected() {
+        StompSession current = session;
+        return current != null && current.isConnected();
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setThreadNamePrefix("cache-invalidation-");
+        scheduler.initialize();
+
+        client = new ReactorNettyTcpStompClient(host, port);
+        client.setMessageConverter(new StringMessageConverter());
+        client.setTaskScheduler(scheduler);
+
+        running = true;
+        connect();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        StompSession current = session;
+        session = null;
+        if (current != null && current.isConnected()) {
+            current.disconnect();
+        }
+        if (client != null) {
+            client.shutdown();
+        }
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    private void connect() {
+        if (!running) {
+            return;
+        }
+        StompHeaders headers = new StompHeaders();
+        headers.setLogin(login);
+        headers.setPasscode(passcode);
+        // As the relay itself does: the virtual host if configured, otherwise the broker's host name
+        headers.setHost(virtualHost.isBlank() ? host : virtualHost);
+        client.connectAsync(headers, new SessionHandler());
+    }
+
+    private void scheduleReconnect() {
+        session = null;
+        if (running && reconnectScheduled.compareAndSet(false, true)) {
+            scheduler.schedule(() -> {
+                reconnectScheduled.set(false);
+                connect();
+            }, Instant.now().plus(RECONNECT_DELAY));
+        }
+    }
+
+    private void receive(String payload) {
+        String[] parts = payload.split("\n", 3);
+        if (parts.length != 3 || parts[0].equals(nodeId)) {
+            return;
+        }
+        if (parts[1].equals(ALL_CACHES)) {
+            listeners.values().forEach(listener -> listener.invalidateAll().run());
+            return;
+        }
+        Listener listener = listeners.get(parts[1]);
+        if (listener != null) {
+            for (String key : parts[2].split("\n")) {
+                listener.invalidate().accept(key);
+            }
+        }
+    }
+
+    private class SessionHandler extends StompSessionHandlerAdapter {
+
+        @Override
+        public void afterConnected(StompSession connected, StompHeaders connectedHeaders) {
+            connected.subscribe(DESTINATION, new StompFrameHandler() {
+                @Override
+                public Type getPayloadType(StompHeaders headers) {
+                    return String.class;
+                }
+
+                @Override
+                public void handleFrame(StompHeaders headers, Object payload) {
+                    receive((String) payload);
+                }
+            });
+            session = connected;
+            // We may have missed invalidations while away; if ours could not be sent either, the others clear too
+            listeners.values().forEach(listener -> listener.invalidateAll().run());
+            if (missedPublish) {
+                missedPublish = false;
+                connected.send(DESTINATION, nodeId + "\n" + ALL_CACHES + "\n" + ALL_CACHES);
+            }
+        }
+
+        @Override
+        public void handleException(StompSession failed, StompCommand command, StompHeaders headers, byte[] payload, Throwable exception) {
+            log.warn("Cache invalidation frame failed", exception);
+        }
+
+        @Override
+        public void handleTransportError(StompSession failed, Throwable exception) {
+            log.warn("Cache invalidation broker connection lost, reconnecting in {}", RECONNECT_DELAY, exception);
+            scheduleReconnect();
+        }
+    }
+
+}
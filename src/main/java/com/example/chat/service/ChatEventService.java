@@ -0,0 +1,172 @@
+package com.example.chat.service;
+
+import com.example.chat.controller.WebSocketsController;
+import com.example.chat.entity.UserConversation;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.Accessors;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Pushes chat updates to a user. Sessions that connected with {@code events=delta} get small
+ * versioned {@link ChatEvent}s on /queue/events carrying only ids and changed fields; all other
+ * sessions keep receiving the full StatusResponse list on /queue/messages. The format is chosen
+ * per session, so one user can have delta and legacy clients open at the same time.
+ */
+@Component
+public class ChatEventService {
+
+    public static final int EVENT_VERSION = 1;
+
+    public static final String EVENTS_DESTINATION = "/queue/events";
+    public static final String EVENTS_SUBSCRIPTION = "/user" + EVENTS_DESTINATION;
+    public static final String LEGACY_DESTINATION = "/queue/messages";
+
+    public static final String MESSAGE_CREATED = "MESSAGE_CREATED";
+    public static final String MESSAGE_REJECTED = "MESSAGE_REJECTED";
+    public static final String STATUS_CHANGED = "STATUS_CHANGED";
+    public static final String MESSAGE_DELETED = "MESSAGE_DELETED";
+    public static final String PRESENCE_CHANGED = "PRESENCE_CHANGED";
+    public static final String CONNECTION_CHANGED = "CONNECTION_CHANGED";
+
+    @Autowired
+    SimpMessagingTemplate messagingTemplate;
+
+    @Autowired
+    PresenceRegistry presenceRegistry;
+
+    /**
+     * @param legacyResponses only invoked when one of the user's sessions still expects the full payload
+     */
+    public void notify(String userName, List<ChatEvent> events, Supplier<List<WebSocketsController.StatusResponse>> legacyResponses) {
+        List<WebSocketsController.StatusResponse> statusResponses = null;
+        boolean legacyBuilt = false;
+
+        for (Map.Entry<String, Boolean> session : presenceRegistry.getSessionFormats(userName).entrySet()) {
+            if (session.getValue()) {
+                if (!events.isEmpty()) {
+                    sendToSession(session.getKey(), EVENTS_DESTINATION, events);
+                }
+                continue;
+            }
+            if (!legacyBuilt) {
+                statusResponses = legacyResponses.get();
+                legacyBuilt = true;
+            }
+            if (statusResponses != null && !statusResponses.isEmpty()) {
+                sendToSession(session.getKey(), LEGACY_DESTINATION, statusResponses);
+            }
+        }
+    }
+
+    // Addressed by session id, so only that session's queue receives it, on whichever node it lives
+    private void sendToSession(String sessionId, String destination, Object payload) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setSessionId(sessionId);
+        headers.setLeaveMutable(true);
+        messagingTemplate.convertAndSendToUser(sessionId, destination, payload, headers.getMessageHeaders());
+    }
+
+    public static ChatEvent messageCreated(String peer, UserConversation conversation, long unread) {
+        return new ChatEvent(MESSAGE_CREATED, peer)
+                .setMessageId(conversation.getId())
+                .setSender(conversation.getSender())
+                .setMessage(conversation.getMessage())
+                .setMessageType(conversation.getMessageType())
+                .setStatus(conversation.getStatus())
+                .setCreatedAt(conversation.getCreatedAt())
+                .setFileName(conversation.getFileName())
+                .setFileSize(conversation.getFileSize())
+                .setThumbnailUrl(conversation.getThumbnailUrl())
+                .setPlaceholder(conversation.getPlaceholder())
+                .setRepliedBy(conversation.getRepliedBy())
+                .setRepliedMessageId(conversation.getRepliedMessageId())
+                .setUnread(unread);
+    }
+
+    // No id was assigned, so the client matches the failed message by its createdAt
+    public static ChatEvent messageRejected(String peer, UserConversation conversation) {
+        return new ChatEvent(MESSAGE_REJECTED, peer)
+                .setCreatedAt(conversation.getCreatedAt());
+    }
+
+    // Every message in the chat from the viewer, up to the watermark, now has the given status
+    public static ChatEvent statusChanged(String peer, String status, LocalDateTime upTo) {
+        return new ChatEvent(STATUS_CHANGED, peer)
+                .setStatus(status)
+                .setCreatedAt(upTo);
+    }
+
+    public static ChatEvent messageDeleted(String peer, List<String> messageIds, boolean everyone, long unread) {
+        return new ChatEvent(MESSAGE_DELETED, peer)
+                .setMessageIds(messageIds)
+                .setEveryone(everyone)
+                .setUnread(unread);
+    }
+
+    public static ChatEvent presenceChanged(String peer, String loginStatus, LocalDateTime lastSeen) {
+        return new ChatEvent(PRESENCE_CHANGED, peer)
+                .setLoginStatus(loginStatus)
+                .setLastSeen(lastSeen);
+    }
+
+    public static ChatEvent connectionChanged(String peer) {
+        return new ChatEvent(CONNECTION_CHANGED, peer);
+    }
+
+    /**
+     * One change in the chat with {@code peer}. Fields that did not change are left null and are
+     * not serialized.
+     */
+    @Data
+    @NoArgsConstructor
+    @Accessors(chain = true)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class ChatEvent {
+        private int v = EVENT_VERSION;
+        private String type;
+        private String peer;
+
+        private String messageId;
+        private List<String> messageIds;
+        private String sender;
+        private String message;
+        private String messageType;
+        private String status;
+        private LocalDateTime createdAt;
+        private String fileName;
+        private String fileSize;
+        private String thumbnailUrl;
+        private String placeholder;
+        private String repliedBy;
+        private String repliedMessageId;
+        private Boolean everyone;
+
+        // The recipient's unread count in this chat after the change
+        private Long unread;
+
+        private String loginStatus;
+        private LocalDateTime lastSeen;
+
+        // blocked and connectionDeleted describe the peer's choice; chatClearedAt is when the recipient cleared the chat
+        private Boolean blocked;
+        private Boolean connectionDeleted;
+        private LocalDateTime chatClearedAt;
+
+        public ChatEvent(String type, String peer) {
+            this.type = type;
+            this.peer = peer;
+        }
+    }
+
+}
@@ -0,0 +1,234 @@
+package com.example.chat.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resumable uploads written straight from the request stream to a file on disk, so a large
+ * attachment never sits in memory. A client creates an upload, sends chunks at the current
+ * offset (asking for the offset again after a dropped connection) and completes it once every
+ * byte has arrived. Each chunk is hashed as it is written, so completing hands over the file's
+ * SHA-256 without reading it again. Upload state is kept per node; abandoned uploads are removed
+ * after the configured expiry.
+ */
+@Component
+public class ChunkedUploadService {
+
+    private static final Logger log = LoggerFactory.getLogger(ChunkedUploadService.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path directory;
+    private final long maxFileSize;
+    private final long chunkSize;
+    private final Duration expireAfter;
+
+    private final ConcurrentHashMap<String, ChunkedUpload> uploads = new ConcurrentHashMap<>();
+
+    private static class ChunkedUpload {
+        private final String owner;
+        private final String fileName;
+        private final long fileSize;
+        private final Path path;
+        private long offset;
+        // SHA-256 of the bytes before offset; null after a chunk was rolled back, then the caller hashes the file
+        private MessageDigest digest = MediaService.newSha256();
+        private volatile Instant lastTouched = Instant.now();
+
+        private ChunkedUpload(String owner, String fileName, long fileSize, Path path) {
+            this.owner = owner;
+            this.fileName = fileName;
+            this.fileSize = fileSize;
+            this.path = path;
+        }
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class UploadStatus {
+        private String uploadId;
+        private String fileName;
+        private long fileSize;
+        private long offset;
+        private long chunkSize;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class CompletedUpload {
+        private Path path;
+        private String fileName;
+        private String sha256;
+    }
+
+    public ChunkedUploadService(@Value("${chat.upload.chunked.dir:${java.io.tmpdir}/chat-uploads}") Path directory,
+                                @Value("${chat.upload.chunked.max-file-size:50MB}") DataSize maxFileSize,
+                                @Value("${chat.upload.chunked.chunk-size:1MB}") DataSize chunkSize,
+                                @Value("${chat.upload.chunked.expire-after:24h}") Duration expireAfter) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.maxFileSize = maxFileSize.toBytes();
+        this.chunkSize = chunkSize.toBytes();
+        this.expireAfter = expireAfter;
+    }
+
+    public UploadStatus start(String owner, String fileName, long fileSize) throws IOException {
+        if (fileName == null || fileName.isBlank() || fileSize <= 0) {
+            throw new IllegalArgumentException("File name and size are required!");
+        }
+        if (fileSize > maxFileSize) {
+            throw new IllegalArgumentException("File is larger than " + maxFileSize + " bytes!");
+        }
+
+        String uploadId = UUID.randomUUID().toString();
+        Path path = Files.createFile(directory.resolve(uploadId + getFileExtension(fileName)));
+        ChunkedUpload upload = new ChunkedUpload(owner, fileName, fileSize, path);
+        uploads.put(uploadId, upload);
+
+        return toStatus(uploadId, upload);
+    }
+
+    public UploadStatus getStatus(String owner, String uploadId) {
+        ChunkedUpload upload = find(owner, uploadId);
+        synchronized (upload) {
+            return toStatus(uploadId, upload);
+        }
+    }
+
+    /**
+     * Streams the body into the file at {@code offset}, which must equal the bytes received so far.
+     * @throws IllegalStateException when the offset does not match, so the client can resume from getStatus
+     * @throws IllegalArgumentException when the body runs past the declared file size
+     */
+    public UploadStatus appendChunk(String owner, String uploadId, long offset, InputStream body) throws IOException {
+        ChunkedUpload upload = find(owner, uploadId);
+
+        synchronized (upload) {
+            if (offset != upload.offset) {
+                throw new IllegalStateException("Expected offset " + upload.offset);
+            }
+
+            long start = upload.offset;
+            upload.lastTouched = Instant.now();
+
+            try (FileChannel file = FileChannel.open(upload.path, StandardOpenOption.WRITE);
+                 ReadableByteChannel source = Channels.newChannel(body)) {
+
+                ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(chunkSize, BUFFER_SIZE));
+                try {
+                    int read;
+                    while (upload.offset < upload.fileSize
+                            && (read = source.read(buffer.clear().limit((int) Math.min(buffer.capacity(), upload.fileSize - upload.offset)))) > 0) {
+                        buffer.flip();
+                        long position = upload.offset;
+                        while (buffer.hasRemaining()) {
+                            position += file.write(buffer, position);
+                        }
+                        // Only bytes that reached the file count, so the digest always matches offset
+                        if (upload.digest != null) {
+                            upload.digest.update(buffer.array(), 0, read);
+                        }
+                        upload.offset += read;
+                    }
+                } finally {
+                    // Bytes already on disk are kept when the client drops mid-chunk; it resumes from the new offset
+                    upload.lastTouched = Instant.now();
+                }
+
+                if (upload.offset == upload.fileSize && body.read() != -1) {
+                    file.truncate(start);
+                    upload.offset = start;
+                    upload.digest = null;
+                    throw new IllegalArgumentException("Chunk runs past the declared file size!");
+                }
+            }
+
+            return toStatus(uploadId, upload);
+        }
+    }
+
+    /**
+     * Hands the finished file to the caller, who owns (and must delete) it from then on. Its sha256
+     * is null if a chunk had to be rolled back.
+     */
+    public CompletedUpload complete(String owner, String uploadId) {
+        ChunkedUpload upload = find(owner, uploadId);
+
+        synchronized (upload) {
+            if (upload.offset != upload.fileSize) {
+                throw new IllegalStateException("Expected offset " + upload.offset);
+            }
+            uploads.remove(uploadId);
+            String sha256 = upload.digest != null ? HexFormat.of().formatHex(upload.digest.digest()) : null;
+            return new CompletedUpload(upload.path, upload.fileName, sha256);
+        }
+    }
+
+    public void abort(String owner, String uploadId) throws IOException {
+        ChunkedUpload upload = find(owner, uploadId);
+        synchronized (upload) {
+            uploads.remove(uploadId);
+            Files.deleteIfExists(upload.path);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${chat.upload.chunked.cleanup-interval-ms:600000}")
+    public void removeExpired() {
+        Instant cutoff = Instant.now().minus(expireAfter);
+        uploads.forEach((uploadId, upload) -> {
+            if (upload.lastTouched.isBefore(cutoff) && uploads.remove(uploadId, upload)) {
+                log.debug("Removing upload {} of {}, untouched since {}", uploadId, upload.owner, upload.lastTouched);
+                try {
+                    Files.deleteIfExists(upload.path);
+                } catch (IOException e) {
+                    log.warn("Failed to delete expired upload {}", upload.path, e);
+                }
+            }
+        });
+    }
+
+    private ChunkedUpload find(String owner, String uploadId) {
+        ChunkedUpload upload = uploads.get(uploadId);
+        if (upload == null || !upload.owner.equals(owner)) {
+            throw new NoSuchElementException("Upload not found!");
+        }
+        return upload;
+    }
+
+    private UploadStatus toStatus(String uploadId, ChunkedUpload upload) {
+        return new UploadStatus(uploadId, upload.fileName, upload.fileSize, upload.offset, chunkSize);
+    }
+
+    // Voice notes recorded as .mpa are stored as .mp3, as CloudinaryService does for multipart uploads
+    private static String getFileExtension(String fileName) {
+        String extension = fileName.contains(".") ? fileName.substring(fileName.lastIndexOf(".")) : "";
+        if (!extension.matches("\\.[A-Za-z0-9]{1,10}")) return ".tmp";
+        return extension.equalsIgnoreCase(".mpa") ? ".mp3" : extension;
+    }
+
+}
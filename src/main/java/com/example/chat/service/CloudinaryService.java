@@ -3,15 +3,19 @@ package com.example.chat.service;
 import com.cloudinary.Cloudinary;
 import com.cloudinary.utils.ObjectUtils;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 
 @Service
-public class CloudinaryService {
+@ConditionalOnProperty(name = "chat.media.storage", havingValue = "cloudinary", matchIfMissing = true)
+public class CloudinaryService implements MediaStorage {
 
     private final Cloudinary cloudinary;
 
@@ -38,6 +42,14 @@ public class CloudinaryService {
             file.transferTo(uploadFile);
         }
 
+        try {
+            return uploadFile(uploadFile);
+        } finally {
+            Files.deleteIfExists(uploadFile.toPath());
+        }
+    }
+
+    public String uploadFile(File uploadFile) throws IOException {
         Map uploadResult = cloudinary.uploader().upload(uploadFile, ObjectUtils.asMap(
                 "resource_type", "auto"
         ));
@@ -46,6 +58,33 @@ public class CloudinaryService {
         return (String) uploadResult.get("url");
     }
 
+    @Override
+    public String store(MultipartFile file) throws IOException {
+        return uploadFile(file);
+    }
+
+    @Override
+    public String store(Path file, String fileName) throws IOException {
+        return uploadFile(file.toFile());
+    }
+
+    @Override
+    public boolean delete(String url, String resourceType) throws IOException {
+        try {
+            return deleteFile(url, resourceType != null ? resourceType : resourceTypeOf(url));
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    // Cloudinary URLs look like .../<cloud>/<resource type>/upload/v123/<public id>.<ext>
+    private static String resourceTypeOf(String url) {
+        String[] path = url.split("/upload/")[0].split("/");
+        return path[path.length - 1];
+    }
+
     private String getFileExtension(String fileName) {
         if (fileName == null || !fileName.contains(".")) return ".tmp";
         return fileName.substring(fileName.lastIndexOf("."));
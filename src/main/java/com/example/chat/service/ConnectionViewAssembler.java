@@ -0,0 +1,138 @@
+package com.example.chat.service;
+
+import com.example.chat.entity.User;
+import com.example.chat.entity.UserConnection;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.Accessors;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Builds the connection payload sent over REST and STOMP as seen by one participant (the viewer):
+ * the peer's profile and presence, and unread counts with user1 = viewer and user2 = peer. Nothing
+ * here is persisted, so UserConnection documents only carry shared chat state.
+ */
+@Component
+public class ConnectionViewAssembler {
+
+    @Autowired
+    UserService userService;
+
+    @Autowired
+    PresenceRegistry presenceRegistry;
+
+    public ConnectionView toView(UserConnection connection, String viewer) {
+        return toView(connection, viewer, userService.getUserByUserName(peerOf(connection, viewer)));
+    }
+
+    public ConnectionView toView(UserConnection connection, String viewer, User peer) {
+        String peerUserName = peerOf(connection, viewer);
+        boolean isBlocked = connection.getUserName1().equals(viewer) ? connection.isBlockedByUser2() : connection.isBlockedByUser1();
+
+        ConnectionView view = new ConnectionView()
+                .setId(connection.getId())
+                .setParticipants(connection.getParticipants())
+                .setUserId1(connection.getUserId1())
+                .setUserName1(connection.getUserName1())
+                .setUserId2(connection.getUserId2())
+                .setUserName2(connection.getUserName2())
+                .setUser1LastConversation(connection.getUser1LastConversation())
+                .setUser1LastConversationId(connection.getUser1LastConversationId())
+                .setUser1LastConversationAt(connection.getUser1LastConversationAt())
+                .setUser1LastConversationType(connection.getUser1LastConversationType())
+                .setUser2LastConversation(connection.getUser2LastConversation())
+                .setUser2LastConversationId(connection.getUser2LastConversationId())
+                .setUser2LastConversationAt(connection.getUser2LastConversationAt())
+                .setUser2LastConversationType(connection.getUser2LastConversationType())
+                .setBlockedByUser1(connection.isBlockedByUser1())
+                .setBlockedByUser2(connection.isBlockedByUser2())
+                .setConnectionDeletedByUser1(connection.isConnectionDeletedByUser1())
+                .setConnectionDeletedByUser2(connection.isConnectionDeletedByUser2())
+                .setUser1ChatOpened(connection.isUser1ChatOpened())
+                .setUser2ChatOpened(connection.isUser2ChatOpened())
+                .setRecentChatClearedByUser1(connection.getRecentChatClearedByUser1())
+                .setRecentChatClearedByUser2(connection.getRecentChatClearedByUser2())
+                .setConnectedAt(connection.getConnectedAt())
+                .setUserName(peerUserName);
+
+        if (peer != null) {
+            view.setEmail(peer.getEmail());
+            if (!isBlocked) {
+                view.setProfilePicture(peer.getProfilePicture())
+                        .setLastSeen(presenceRegistry.getLastSeen(peerUserName, peer.getLastSeen()))
+                        .setLoginStatus(presenceRegistry.getStatus(peerUserName, peer.getStatus()));
+            }
+        }
+
+        if (!isBlocked) {
+            view.setUnReadMsgsOfUser1(UserConnectionService.getUnreadCount(connection, viewer))
+                    .setUnReadMsgsOfUser2(UserConnectionService.getUnreadCount(connection, peerUserName));
+        }
+
+        return view;
+    }
+
+    // Resolves every peer with one batched user lookup
+    public List<ConnectionView> toViews(List<UserConnection> connections, String viewer) {
+        Map<String, User> peers = userService.getUsersByUserNames(
+                connections.stream().map(connection -> peerOf(connection, viewer)).distinct().toList()
+        );
+
+        List<ConnectionView> views = new ArrayList<>(connections.size());
+        for (UserConnection connection : connections) {
+            views.add(toView(connection, viewer, peers.get(peerOf(connection, viewer))));
+        }
+        return views;
+    }
+
+    private static String peerOf(UserConnection connection, String viewer) {
+        return connection.getUserName1().equals(viewer) ? connection.getUserName2() : connection.getUserName1();
+    }
+
+    @Data
+    @NoArgsConstructor
+    @Accessors(chain = true)
+    public static class ConnectionView {
+        private String id;
+        private String participants;
+        private String userId1;
+        private String userName1;
+        private String userId2;
+        private String userName2;
+
+        private String user1LastConversation;
+        private String user1LastConversationId;
+        private LocalDateTime user1LastConversationAt;
+        private String user1LastConversationType;
+
+        private String user2LastConversation;
+        private String user2LastConversationId;
+        private LocalDateTime user2LastConversationAt;
+        private String user2LastConversationType;
+
+        private long unReadMsgsOfUser1;
+        private long unReadMsgsOfUser2;
+
+        private String userName;
+        private String email;
+        private String profilePicture;
+        private LocalDateTime lastSeen;
+        private String loginStatus;
+
+        private boolean isBlockedByUser1;
+        private boolean isBlockedByUser2;
+        private boolean isConnectionDeletedByUser1;
+        private boolean isConnectionDeletedByUser2;
+        private boolean user1ChatOpened;
+        private boolean user2ChatOpened;
+
+        private LocalDateTime recentChatClearedByUser1;
+        private LocalDateTime recentChatClearedByUser2;
+        private LocalDateTime connectedAt;
+    }
+
+}
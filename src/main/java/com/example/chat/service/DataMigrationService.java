@@ -0,0 +1,197 @@
+package com.example.chat.service;
+
+import com.example.chat.entity.User;
+import com.example.chat.entity.UserConnection;
+import com.example.chat.entity.UserConversation;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Updates;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * One-shot data migrations, run once all beans exist but before the web server and the STOMP
+ * broker start, so no request ever sees data in the old shape. A failed step aborts startup.
+ * Every step only touches documents still in the old shape, so re-running on an already
+ * migrated database is a no-op.
+ */
+@Component
+public class DataMigrationService implements SmartInitializingSingleton {
+
+    private static final Logger log = LoggerFactory.getLogger(DataMigrationService.class);
+
+    private static final int BATCH_SIZE = 1000;
+
+    @Autowired
+    MongoTemplate mongoTemplate;
+
+    @Autowired
+    UserConversationService userConversationService;
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        migrate();
+    }
+
+    public void migrate() {
+        run("conversation ownership", this::migrateConversationOwnership);
+        run("unread counters", this::migrateUnreadCounters);
+        run("connection versions", this::migrateConnectionVersions);
+        run("connection view fields", this::removeConnectionViewFields);
+        run("userNameLower", this::backfillUserNameLower);
+    }
+
+    private void run(String step, Runnable migration) {
+        log.debug("Running data migration: {}", step);
+        try {
+            migration.run();
+        } catch (RuntimeException e) {
+            log.error("Data migration failed: {}", step, e);
+            throw new IllegalStateException("Data migration failed: " + step, e);
+        }
+    }
+
+    // Back-fills UserConversation.participants from the legacy UserConnection.conversationsId set, then drops the set.
+    private void migrateConversationOwnership() {
+        MongoCollection<Document> connections = mongoTemplate.getCollection(mongoTemplate.getCollectionName(UserConnection.class));
+        MongoCollection<Document> conversations = mongoTemplate.getCollection(mongoTemplate.getCollectionName(UserConversation.class));
+
+        long migrated = 0;
+        for (Document connection : connections.find(Filters.exists("conversationsId"))
+                .projection(Projections.include("participants", "conversationsId"))) {
+
+            String participants = connection.getString("participants");
+            List<?> ids = connection.getList("conversationsId", Object.class, List.of());
+
+            List<Object> batch = new ArrayList<>(BATCH_SIZE);
+            for (Object id : ids) {
+                batch.add(id instanceof String value && ObjectId.isValid(value) ? new ObjectId(value) : id);
+                if (batch.size() == BATCH_SIZE) {
+                    conversations.updateMany(Filters.in("_id", batch), Updates.set("participants", participants));
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                conversations.updateMany(Filters.in("_id", batch), Updates.set("participants", participants));
+            }
+
+            connections.updateOne(Filters.eq("_id", connection.get("_id")), Updates.unset("conversationsId"));
+            migrated++;
+        }
+
+        for (IndexInfo index : mongoTemplate.indexOps(UserConnection.class).getIndexInfo()) {
+            if (index.isIndexForFields(List.of("conversationsId"))) {
+                mongoTemplate.indexOps(UserConnection.class).dropIndex(index.getName());
+            }
+        }
+
+        if (migrated > 0) {
+            log.info("Migrated conversation ownership for {} connections", migrated);
+        }
+    }
+
+    // Seeds the numeric unread counters for connections that still carry the old string (or no) values.
+    private void migrateUnreadCounters() {
+        MongoCollection<Document> connections = mongoTemplate.getCollection(mongoTemplate.getCollectionName(UserConnection.class));
+
+        List<Document> batch = new ArrayList<>(BATCH_SIZE);
+        long migrated = 0;
+        for (Document connection : connections.find(Filters.or(
+                        Filters.exists("unReadMsgsOfUser1", false),
+                        Filters.type("unReadMsgsOfUser1", BsonType.STRING),
+                        Filters.type("unReadMsgsOfUser2", BsonType.STRING)))
+                .projection(Projections.include("participants", "userName1", "userName2"))) {
+
+            batch.add(connection);
+            if (batch.size() == BATCH_SIZE) {
+                migrated += seedUnreadCounters(connections, batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            migrated += seedUnreadCounters(connections, batch);
+        }
+
+        if (migrated > 0) {
+            log.info("Seeded unread counters for {} connections", migrated);
+        }
+    }
+
+    // Connections saved before optimistic locking have no version; Spring Data would treat them as new documents.
+    private void migrateConnectionVersions() {
+        long migrated = mongoTemplate.getCollection(mongoTemplate.getCollectionName(UserConnection.class))
+                .updateMany(Filters.exists("version", false), Updates.set("version", 0L))
+                .getModifiedCount();
+
+        if (migrated > 0) {
+            log.info("Initialised version for {} connections", migrated);
+        }
+    }
+
+    // Per-viewer display fields used to be written along with the connection; they now live in ConnectionView only.
+    private void removeConnectionViewFields() {
+        List<String> fields = List.of("userName", "email", "profilePicture", "lastSeen", "loginStatus");
+
+        long migrated = mongoTemplate.getCollection(mongoTemplate.getCollectionName(UserConnection.class))
+                .updateMany(
+                        Filters.or(fields.stream().map(Filters::exists).toList()),
+                        Updates.combine(fields.stream().map(Updates::unset).toList())
+                )
+                .getModifiedCount();
+
+        if (migrated > 0) {
+            log.info("Removed view fields from {} connections", migrated);
+        }
+    }
+
+    // Users created before the lowercase search key existed cannot be found by the prefix search.
+    private void backfillUserNameLower() {
+        MongoCollection<Document> users = mongoTemplate.getCollection(mongoTemplate.getCollectionName(User.class));
+
+        long migrated = 0;
+        for (Document user : users.find(Filters.exists("userNameLower", false))
+                .projection(Projections.include("userName"))
+                .batchSize(BATCH_SIZE)) {
+
+            String userName = user.getString("userName");
+            if (userName != null) {
+                users.updateOne(Filters.eq("_id", user.get("_id")), Updates.set("userNameLower", userName.toLowerCase(Locale.ROOT)));
+                migrated++;
+            }
+        }
+
+        if (migrated > 0) {
+            log.info("Back-filled userNameLower for {} users", migrated);
+        }
+    }
+
+    private int seedUnreadCounters(MongoCollection<Document> connections, List<Document> batch) {
+        Map<String, Map<String, Long>> counts = userConversationService.getUnreadCounts(
+                batch.stream().map(connection -> connection.getString("participants")).toList()
+        );
+
+        for (Document connection : batch) {
+            Map<String, Long> connectionCounts = counts.getOrDefault(connection.getString("participants"), Map.of());
+            connections.updateOne(Filters.eq("_id", connection.get("_id")), Updates.combine(
+                    Updates.set("unReadMsgsOfUser1", connectionCounts.getOrDefault(connection.getString("userName1"), 0L)),
+                    Updates.set("unReadMsgsOfUser2", connectionCounts.getOrDefault(connection.getString("userName2"), 0L))
+            ));
+        }
+        return batch.size();
+    }
+
+}
@@ -0,0 +1,140 @@
+package com.example.chat.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.stream.Stream;
+
+/**
+ * Keeps media on local disk under chat.media.local.dir, named by the SHA-256 of the content
+ * ({@code ab/cd/abcd...ext}), and served by WebConfig under /media. Files only ever reach their
+ * final path by a rename or a channel-to-channel transfer, so the bytes are not pulled through
+ * the heap. Meant for offline runs and load tests of the media path.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.media.storage", havingValue = "local")
+public class LocalMediaStorage implements MediaStorage {
+
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+    private final Path root;
+    private final Path incoming;
+    private final String baseUrl;
+
+    public LocalMediaStorage(@Value("${chat.media.local.dir:${user.home}/chat-media}") Path root,
+                             @Value("${chat.media.local.base-url:http://localhost:${server.port:8080}${server.servlet.context-path:}/media}") String baseUrl) throws IOException {
+        this.root = Files.createDirectories(root.toAbsolutePath().normalize());
+        this.incoming = Files.createDirectories(this.root.resolve(".incoming"));
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+
+        // Leftovers of uploads that were in flight when the node stopped
+        try (Stream<Path> leftovers = Files.list(incoming)) {
+            for (Path leftover : leftovers.toList()) {
+                Files.deleteIfExists(leftover);
+            }
+        }
+    }
+
+    @Override
+    public String store(MultipartFile file) throws IOException {
+        Path temp = Files.createTempFile(incoming, "upload-", ".tmp");
+        try {
+            // Tomcat moves its spooled part file here when both are on the same disk
+            file.transferTo(temp.toFile());
+            return store(temp, file.getOriginalFilename());
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public String store(Path file, String fileName) throws IOException {
+        return store(file, fileName, sha256(file));
+    }
+
+    @Override
+    public String store(Path file, String fileName, String hash) throws IOException {
+        Path target = root.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash + getFileExtension(fileName));
+
+        if (!Files.exists(target)) {
+            Files.createDirectories(target.getParent());
+            try {
+                Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                // Source lives on another file system (e.g. the chunked upload dir): copy next to the target first
+                Path temp = Files.createTempFile(incoming, "copy-", ".tmp");
+                try {
+                    transfer(file, temp);
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(temp);
+                }
+            }
+        }
+
+        return baseUrl + "/" + root.relativize(target).toString().replace('\\', '/');
+    }
+
+    /**
+     * Removes the file at the URL. Identical uploads share one path; MediaService only gets here once
+     * the last of them is deleted.
+     */
+    @Override
+    public boolean delete(String url, String resourceType) throws IOException {
+        if (url == null || !url.startsWith(baseUrl + "/")) {
+            return false;
+        }
+        Path path = root.resolve(url.substring(baseUrl.length() + 1)).normalize();
+        if (!path.startsWith(root) || path.startsWith(incoming)) {
+            return false;
+        }
+        return Files.deleteIfExists(path);
+    }
+
+    private static void transfer(Path source, Path target) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+    }
+
+    private static String sha256(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    // Voice notes recorded as .mpa are stored as .mp3, as CloudinaryService does
+    private static String getFileExtension(String fileName) {
+        String extension = fileName != null && fileName.contains(".") ? fileName.substring(fileName.lastIndexOf(".")) : "";
+        if (!extension.matches("\\.[A-Za-z0-9]{1,10}")) return "";
+        return extension.equalsIgnoreCase(".mpa") ? ".mp3" : extension.toLowerCase();
+    }
+
+}
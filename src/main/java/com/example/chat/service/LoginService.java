@@ -5,11 +5,11 @@ import com.example.chat.entity.UserConnection;
 import com.example.chat.entity.UserConversation;
 import com.example.chat.repository.LoginRepository;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Component;
 
+import java.time.LocalDateTime;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
@@ -31,11 +31,14 @@ public class LoginService {
     UserService userService;
 
     @Autowired
-    SimpMessagingTemplate messagingTemplate;
+    ChatEventService chatEventService;
 
     @Autowired
     UserConversationService userConversationService;
 
+    @Autowired
+    ConnectionViewAssembler connectionViewAssembler;
+
     public void saveData(User user) {
         user.setPassword(passwordEncoder.encode(user.getPassword()));
         loginRepository.save(user);
@@ -43,30 +46,27 @@ public class LoginService {
 
     public void notifyLoginStatus(String userName, String status) {
         List<UserConnection> userConnections = userConnectionService.getAllConnectionsByUsername(userName);
+
+        if (status.equals("online")) {
+            userConversationService.markDelivered(
+                    userConnections.stream().map(UserConnection::getParticipants).toList(),
+                    userName,
+                    LocalDateTime.now()
+            );
+        }
+
         for (UserConnection userConnection : userConnections) {
             if (
                 (userConnection.getUserName2().equals(userName) && userConnection.isUser2ChatOpened())
                 ||
                (userConnection.getUserName1().equals(userName) && userConnection.isUser1ChatOpened()))
             {
-                if (userConnection.getUserName2().equals(userName) && userConnection.isUser2ChatOpened()) {
-                    userConnection.setUser2ChatOpened(false);
-                } else {
-                    userConnection.setUser1ChatOpened(false);
+                UserConnection updated = userConnectionService.updateConnection(
+                        userConnectionService.update(userConnection).chatOpened(userName, false)
+                );
+                if (updated != null) {
+                    userConnection = updated;
                 }
-                userConnectionService.saveConnection(userConnection);
-            }
-
-            if (status.equals("online")) {
-                Set<UserConversation> userConversations = userConversationService.getConversations(userConnection.getConversationsId());
-
-                for (UserConversation userConversation : userConversations) {
-                    if (userConversation.getReceiver().equals(userName) && userConversation.getStatus().equals("Sent")) {
-                        userConversation.setStatus("Delivered");
-                    }
-                }
-
-                userConversationService.saveAllConversations(userConversations);
             }
 
             if (
@@ -79,15 +79,11 @@ public class LoginService {
                 boolean isBlocked = ((userConnection.getUserName1().equals(userName) && userConnection.isBlockedByUser1()) || (userConnection.getUserName2().equals(userName) && userConnection.isBlockedByUser2()));
 
                 if (!isBlocked) {
-                    userConnection.setEmail(user.getEmail())
-                            .setLastSeen(user.getLastSeen())
-                            .setLoginStatus(status)
-                            .setProfilePicture(user.getProfilePicture());
-
-                    messagingTemplate.convertAndSendToUser(
+                    ConnectionViewAssembler.ConnectionView view = connectionViewAssembler.toView(userConnection, receiverUserName, user);
+                    chatEventService.notify(
                             receiverUserName,
-                            "/queue/messages",
-                            List.of(new WebSocketsController.StatusResponse(userName, null, userConnection, 200, "", "Receive"))
+                            List.of(ChatEventService.presenceChanged(userName, view.getLoginStatus(), view.getLastSeen())),
+                            () -> List.of(new WebSocketsController.StatusResponse(userName, null, view, 200, "", "Receive"))
                     );
                 }
             }
@@ -0,0 +1,250 @@
+package com.example.chat.service;
+
+import com.example.chat.entity.MediaAsset;
+import com.example.chat.entity.UserConversation;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.*;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.ConvolveOp;
+import java.awt.image.Kernel;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds a small JPEG thumbnail and an inline blur placeholder for every newly stored image, off
+ * the request thread. Results are written to the MediaAsset and to every message that already
+ * points at it; messages sent later pick them up from the asset in MediaService.attachPreviews.
+ */
+@Component
+public class MediaPreviewService {
+
+    private static final Set<String> IMAGE_EXTENSIONS = Set.of(".jpg", ".jpeg", ".png", ".gif", ".bmp");
+
+    @Autowired
+    MediaStorage mediaStorage;
+
+    @Autowired
+    MongoTemplate mongoTemplate;
+
+    private final ThreadPoolExecutor executor;
+    private final int thumbnailSize;
+    private final int placeholderSize;
+    private final long maxPixels;
+
+    public MediaPreviewService(@Value("${chat.media.preview.parallelism:2}") int parallelism,
+                               @Value("${chat.media.preview.queue-capacity:100}") int queueCapacity,
+                               @Value("${chat.media.preview.thumbnail-size:320}") int thumbnailSize,
+                               @Value("${chat.media.preview.placeholder-size:16}") int placeholderSize,
+                               @Value("${chat.media.preview.max-pixels:50000000}") long maxPixels) {
+        this.executor = new ThreadPoolExecutor(
+                parallelism, parallelism,
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new CustomizableThreadFactory("media-preview-"),
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+        this.executor.allowCoreThreadTimeOut(true);
+        this.thumbnailSize = thumbnailSize;
+        this.placeholderSize = placeholderSize;
+        this.maxPixels = maxPixels;
+
+        // Decode straight from memory instead of through ImageIO's temp file cache
+        ImageIO.setUseCache(false);
+    }
+
+    public static boolean isImage(String fileName, String contentType) {
+        if (contentType != null && contentType.startsWith("image/")) {
+            return true;
+        }
+        return fileName != null && fileName.contains(".")
+                && IMAGE_EXTENSIONS.contains(fileName.substring(fileName.lastIndexOf(".")).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Copies the upload aside so previews can be built after the request (and its multipart data) is gone.
+     */
+    public Path copyForPreview(InputStream in) throws IOException {
+        Path copy = Files.createTempFile("preview-", ".tmp");
+        try (in) {
+            Files.copy(in, copy, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(copy);
+            throw e;
+        }
+        return copy;
+    }
+
+    /**
+     * Queues preview generation for the asset; {@code source} is deleted once done, or right away if the queue is full.
+     */
+    public void submit(String mediaId, String url, Path source) {
+        try {
+            executor.execute(() -> {
+                try {
+                    generate(mediaId, url, source);
+                } catch (Exception e) {
+                    System.err.println("Failed to build preview for " + url + ": " + e.getMessage());
+                } finally {
+                    deleteQuietly(source);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            System.err.println("Preview queue full, skipping " + url);
+            deleteQuietly(source);
+        }
+    }
+
+    private void generate(String mediaId, String url, Path source) throws IOException {
+        BufferedImage image = read(source, thumbnailSize);
+        if (image == null) {
+            return;
+        }
+
+        Path thumbnail = Files.createTempFile("thumb-", ".jpg");
+        String thumbnailUrl;
+        try {
+            try (OutputStream out = Files.newOutputStream(thumbnail)) {
+                writeJpeg(scale(image, thumbnailSize), out, 0.75f);
+            }
+            thumbnailUrl = mediaStorage.store(thumbnail, "thumb.jpg");
+        } finally {
+            Files.deleteIfExists(thumbnail);
+        }
+
+        String placeholder = placeholder(image);
+
+        boolean assetExists = mongoTemplate.updateFirst(
+                new Query(Criteria.where("id").is(mediaId)),
+                new Update().set("thumbnailUrl", thumbnailUrl).set("placeholder", placeholder),
+                MediaAsset.class
+        ).getMatchedCount() > 0;
+
+        if (!assetExists) {
+            // Deleted while we were working
+            mediaStorage.delete(thumbnailUrl);
+            return;
+        }
+
+        mongoTemplate.updateMulti(
+                new Query(Criteria.where("mediaId").is(mediaId)),
+                new Update().set("thumbnailUrl", thumbnailUrl).set("placeholder", placeholder),
+                UserConversation.class
+        );
+    }
+
+    /**
+     * Decodes the image with source subsampling, so a 12 MP photo only expands to roughly twice the
+     * thumbnail size in memory. Returns null for formats ImageIO cannot read and for oversized images.
+     */
+    private BufferedImage read(Path source, int targetSize) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(source.toFile())) {
+            if (in == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > maxPixels) {
+                    System.err.println("Skipping preview of a " + width + "x" + height + " image");
+                    return null;
+                }
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = Math.max(1, Math.max(width, height) / (targetSize * 2));
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // Fits the longest side into maxSize on an opaque background, since JPEG has no alpha
+    private static BufferedImage scale(BufferedImage image, int maxSize) {
+        double ratio = Math.min(1.0, (double) maxSize / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * ratio));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * ratio));
+
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(image, 0, 0, width, height, Color.WHITE, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    // A few hundred bytes of blurred JPEG as a data URI, shown stretched until the thumbnail loads
+    private String placeholder(BufferedImage image) throws IOException {
+        BufferedImage tiny = scale(image, placeholderSize);
+        float ninth = 1.0f / 9.0f;
+        Kernel kernel = new Kernel(3, 3, new float[]{ninth, ninth, ninth, ninth, ninth, ninth, ninth, ninth, ninth});
+        BufferedImage blurred = new ConvolveOp(kernel, ConvolveOp.EDGE_NO_OP, null).filter(tiny, null);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeJpeg(blurred, out, 0.5f);
+        return "data:image/jpeg;base64," + Base64.getEncoder().encodeToString(out.toByteArray());
+    }
+
+    private static void writeJpeg(BufferedImage image, OutputStream out, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.err.println("Failed to delete " + file + ": " + e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+}
@@ -0,0 +1,235 @@
+package com.example.chat.service;
+
+import com.example.chat.entity.MediaAsset;
+import com.example.chat.entity.UserConversation;
+import com.example.chat.repository.MediaAssetRepository;
+import com.mongodb.client.result.DeleteResult;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Uploads and deletes media through {@link MediaStorage}, deduplicated by content. Every upload is
+ * hashed with SHA-256 in the same pass that puts it on local disk (a multipart upload is spooled
+ * through a DigestInputStream, a chunked upload is hashed chunk by chunk), so the content is never
+ * read just to hash it. When the media index already has that hash its URL is reused and its
+ * reference count raised instead of storing the file again. Deleting lowers the count and only
+ * removes the stored file with the last reference. New images are handed to MediaPreviewService
+ * for a thumbnail and placeholder.
+ */
+@Component
+public class MediaService {
+
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_INDEX_ATTEMPTS = 3;
+
+    @Autowired
+    MediaStorage mediaStorage;
+
+    @Autowired
+    MediaAssetRepository mediaAssetRepository;
+
+    @Autowired
+    MongoTemplate mongoTemplate;
+
+    @Autowired
+    MediaPreviewService mediaPreviewService;
+
+    public String upload(MultipartFile file) throws IOException {
+        String fileName = file.getOriginalFilename();
+        Path spooled = Files.createTempFile("upload-", spoolExtension(fileName));
+        try {
+            String hash;
+            try (DigestInputStream in = new DigestInputStream(file.getInputStream(), newSha256())) {
+                Files.copy(in, spooled, StandardCopyOption.REPLACE_EXISTING);
+                hash = HexFormat.of().formatHex(in.getMessageDigest().digest());
+            }
+            return upload(spooled, fileName, hash, MediaPreviewService.isImage(fileName, file.getContentType()));
+        } finally {
+            Files.deleteIfExists(spooled);
+        }
+    }
+
+    /**
+     * @param sha256 hex SHA-256 of the content if the caller computed it while writing the file; null to compute it here
+     */
+    public String upload(Path file, String fileName, String sha256) throws IOException {
+        String hash = sha256 != null ? sha256 : sha256(file);
+        return upload(file, fileName, hash, MediaPreviewService.isImage(fileName, null));
+    }
+
+    private String upload(Path file, String fileName, String hash, boolean image) throws IOException {
+        MediaAsset asset = claim(hash);
+        if (asset != null) {
+            return asset.getUrl();
+        }
+
+        long size = Files.size(file);
+        // Copied before storing, which may move the file away
+        Path preview = image ? mediaPreviewService.copyForPreview(Files.newInputStream(file)) : null;
+        try {
+            String url = mediaStorage.store(file, fileName, hash);
+            for (int attempt = 0; attempt < MAX_INDEX_ATTEMPTS; attempt++) {
+                try {
+                    mediaAssetRepository.insert(new MediaAsset(hash, url, size, 1, null, null, LocalDateTime.now()));
+                    if (preview != null) {
+                        mediaPreviewService.submit(hash, url, preview);
+                        preview = null;
+                    }
+                    return url;
+                } catch (DuplicateKeyException e) {
+                    // The same content was indexed concurrently: keep that copy and drop ours
+                    asset = claim(hash);
+                    if (asset != null) {
+                        if (!asset.getUrl().equals(url)) {
+                            deleteQuietly(url);
+                        }
+                        return asset.getUrl();
+                    }
+                }
+            }
+
+            System.err.println("Could not index media " + url + ", serving it without deduplication");
+            return url;
+        } finally {
+            if (preview != null) {
+                Files.deleteIfExists(preview);
+            }
+        }
+    }
+
+    /**
+     * Links every message whose body is the URL of an indexed asset to that asset, with one lookup for
+     * the whole batch, and copies over the preview if it is ready. Values sent by the client are discarded.
+     */
+    public void attachPreviews(Collection<UserConversation> conversations) {
+        Set<String> urls = new HashSet<>();
+        for (UserConversation conversation : conversations) {
+            conversation.setMediaId(null).setThumbnailUrl(null).setPlaceholder(null);
+            if (isUrl(conversation.getMessage())) {
+                urls.add(conversation.getMessage());
+            }
+        }
+        if (urls.isEmpty()) {
+            return;
+        }
+
+        Map<String, MediaAsset> assets = new HashMap<>();
+        for (MediaAsset asset : mediaAssetRepository.findByUrlIn(urls)) {
+            assets.put(asset.getUrl(), asset);
+        }
+        for (UserConversation conversation : conversations) {
+            MediaAsset asset = assets.get(conversation.getMessage());
+            if (asset != null) {
+                conversation.setMediaId(asset.getId())
+                        .setThumbnailUrl(asset.getThumbnailUrl())
+                        .setPlaceholder(asset.getPlaceholder());
+            }
+        }
+    }
+
+    private static boolean isUrl(String message) {
+        return message != null && message.startsWith("http") && message.indexOf(' ') < 0;
+    }
+
+    public boolean deleteFile(String url) throws IOException {
+        return deleteFile(url, null);
+    }
+
+    /**
+     * Drops one reference to the file. URLs that are not in the index (uploaded before it existed)
+     * are deleted from storage straight away.
+     */
+    public boolean deleteFile(String url, String resourceType) throws IOException {
+        MediaAsset asset = mongoTemplate.findAndModify(
+                new Query(Criteria.where("url").is(url).and("refCount").gt(0)),
+                new Update().inc("refCount", -1),
+                FindAndModifyOptions.options().returnNew(true),
+                MediaAsset.class
+        );
+
+        if (asset == null) {
+            // Still indexed with no references left: another delete is already removing it
+            return mediaAssetRepository.findByUrl(url) != null || mediaStorage.delete(url, resourceType);
+        }
+        if (asset.getRefCount() > 0) {
+            return true;
+        }
+
+        // An upload of the same content may have claimed it again since the decrement
+        DeleteResult removed = mongoTemplate.remove(
+                new Query(Criteria.where("id").is(asset.getId()).and("refCount").lte(0)),
+                MediaAsset.class
+        );
+        if (removed.getDeletedCount() == 0) {
+            return true;
+        }
+        if (asset.getThumbnailUrl() != null) {
+            deleteQuietly(asset.getThumbnailUrl());
+        }
+        return mediaStorage.delete(url, resourceType);
+    }
+
+    private MediaAsset claim(String hash) {
+        return mongoTemplate.findAndModify(
+                new Query(Criteria.where("id").is(hash)),
+                new Update().inc("refCount", 1),
+                FindAndModifyOptions.options().returnNew(true),
+                MediaAsset.class
+        );
+    }
+
+    private void deleteQuietly(String url) {
+        try {
+            mediaStorage.delete(url);
+        } catch (IOException e) {
+            System.err.println("Failed to delete " + url + ": " + e.getMessage());
+        }
+    }
+
+    // Only for files whose writer did not hash them on the way
+    private static String sha256(Path file) throws IOException {
+        MessageDigest digest = newSha256();
+        byte[] buffer = new byte[HASH_BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Storage backends derive the media type from the extension; voice notes recorded as .mpa are stored as .mp3
+    private static String spoolExtension(String fileName) {
+        String extension = fileName != null && fileName.contains(".") ? fileName.substring(fileName.lastIndexOf(".")) : "";
+        if (!extension.matches("\\.[A-Za-z0-9]{1,10}")) return ".tmp";
+        return extension.equalsIgnoreCase(".mpa") ? ".mp3" : extension;
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.example.chat.service;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Where uploaded media lives. The backend is chosen with chat.media.storage: cloudinary (default)
+ * or local.
+ */
+public interface MediaStorage {
+
+    /**
+     * @return the public URL of the stored file
+     */
+    String store(MultipartFile file) throws IOException;
+
+    /**
+     * Stores a file that is already on local disk. The caller should still delete {@code file}
+     * afterwards; an implementation may have moved it away already.
+     */
+    String store(Path file, String fileName) throws IOException;
+
+    /**
+     * As {@link #store(Path, String)}, for a caller that already hashed the content while writing it.
+     */
+    default String store(Path file, String fileName, String sha256) throws IOException {
+        return store(file, fileName);
+    }
+
+    /**
+     * @param resourceType backend specific hint (Cloudinary's image, video or raw); null to derive it from the URL
+     */
+    boolean delete(String url, String resourceType) throws IOException;
+
+    default boolean delete(String url) throws IOException {
+        return delete(url, null);
+    }
+
+}
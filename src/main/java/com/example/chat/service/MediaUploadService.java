@@ -0,0 +1,109 @@
+package com.example.chat.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Uploads the files of one request concurrently on a bounded pool. Every file gets the configured
+ * timeout from the moment it was submitted, so the whole request waits about one timeout rather
+ * than one per file. A file that fails or times out yields null in its slot while the others are
+ * kept, and an upload that still finishes after its slot was given up is deleted again so it is
+ * not orphaned.
+ */
+@Component
+public class MediaUploadService {
+
+    @Autowired
+    MediaService mediaService;
+
+    private final ThreadPoolExecutor executor;
+    private final Duration timeout;
+
+    public MediaUploadService(@Value("${chat.media.upload.parallelism:4}") int parallelism,
+                              @Value("${chat.media.upload.queue-capacity:200}") int queueCapacity,
+                              @Value("${chat.media.upload.timeout:60s}") Duration timeout) {
+        this.executor = new ThreadPoolExecutor(
+                parallelism, parallelism,
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new CustomizableThreadFactory("media-upload-"),
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+        this.executor.allowCoreThreadTimeOut(true);
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return one URL per file, in request order, with null for every file that was not uploaded
+     */
+    public List<String> uploadAll(MultipartFile[] files) {
+        // Once the request gives up, queued uploads must not start: the multipart data goes away with the request
+        AtomicBoolean abandoned = new AtomicBoolean();
+
+        List<CompletableFuture<String>> uploads = new ArrayList<>(files.length);
+        long[] deadlines = new long[files.length];
+        for (MultipartFile file : files) {
+            deadlines[uploads.size()] = System.nanoTime() + timeout.toNanos();
+            try {
+                uploads.add(CompletableFuture.supplyAsync(() -> {
+                    if (abandoned.get()) {
+                        throw new CancellationException("Upload abandoned");
+                    }
+                    try {
+                        return mediaService.upload(file);
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor));
+            } catch (RejectedExecutionException e) {
+                uploads.add(CompletableFuture.failedFuture(e));
+            }
+        }
+
+        List<String> urls = new ArrayList<>(files.length);
+        for (int i = 0; i < uploads.size(); i++) {
+            CompletableFuture<String> upload = uploads.get(i);
+            try {
+                urls.add(upload.get(Math.max(0, deadlines[i] - System.nanoTime()), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                System.err.println("Upload of " + files[i].getOriginalFilename() + " timed out after " + timeout);
+                urls.add(null);
+                upload.thenAccept(this::deleteOrphan);
+            } catch (ExecutionException e) {
+                System.err.println("Upload of " + files[i].getOriginalFilename() + " failed: " + e.getCause());
+                urls.add(null);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                urls.add(null);
+                upload.thenAccept(this::deleteOrphan);
+            }
+        }
+
+        abandoned.set(true);
+        return urls;
+    }
+
+    private void deleteOrphan(String url) {
+        try {
+            mediaService.deleteFile(url);
+        } catch (Exception e) {
+            System.err.println("Failed to delete orphaned upload " + url + ": " + e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+}
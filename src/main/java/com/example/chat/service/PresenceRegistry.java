@@ -0,0 +1,167 @@
+package com.example.chat.service;
+
+import com.example.chat.entity.User;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.messaging.simp.user.SimpSession;
+import org.springframework.messaging.simp.user.SimpUser;
+import org.springframework.messaging.simp.user.SimpUserRegistry;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * In-process view of who is connected to this node, fed by WebSocketEventListener. A user is
+ * online while at least one STOMP session (browser tab or device) is open here or, in broker
+ * relay mode, on any node sharing the user registry. Status and lastSeen changes are buffered
+ * and written to the User documents in one bulk operation per flush.
+ */
+@Component
+public class PresenceRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(PresenceRegistry.class);
+
+    @Autowired
+    MongoTemplate mongoTemplate;
+
+    @Autowired
+    UserCache userCache;
+
+    // Lazy: the registry is created by the message broker configuration, which depends on services using this class
+    @Lazy
+    @Autowired
+    SimpUserRegistry simpUserRegistry;
+
+    private final ConcurrentHashMap<String, Set<String>> sessions = new ConcurrentHashMap<>();
+
+    // Sessions that negotiated delta events at handshake time
+    private final Set<String> deltaSessions = ConcurrentHashMap.newKeySet();
+
+    private final ConcurrentHashMap<String, PendingPresence> pending = new ConcurrentHashMap<>();
+
+    private record PendingPresence(String status, LocalDateTime lastSeen) {
+    }
+
+    /**
+     * @return true when this is the user's first live session
+     */
+    public boolean addSession(String userName, String sessionId, boolean deltaEvents) {
+        if (deltaEvents) {
+            deltaSessions.add(sessionId);
+        }
+        AtomicBoolean first = new AtomicBoolean();
+        sessions.compute(userName, (key, current) -> {
+            Set<String> updated = current == null ? new HashSet<>() : new HashSet<>(current);
+            first.set(updated.isEmpty());
+            updated.add(sessionId);
+            return updated;
+        });
+        return first.get();
+    }
+
+    /**
+     * @return true when the user's last live session was closed
+     */
+    public boolean removeSession(String userName, String sessionId) {
+        deltaSessions.remove(sessionId);
+        AtomicBoolean last = new AtomicBoolean();
+        sessions.computeIfPresent(userName, (key, current) -> {
+            if (!current.contains(sessionId)) {
+                return current;
+            }
+            Set<String> updated = new HashSet<>(current);
+            updated.remove(sessionId);
+            last.set(updated.isEmpty());
+            return updated.isEmpty() ? null : updated;
+        });
+        return last.get();
+    }
+
+    public boolean isOnline(String userName) {
+        return sessions.containsKey(userName) || simpUserRegistry.getUser(userName) != null;
+    }
+
+    // True when the user has a session other than the given one, possibly on another node
+    public boolean hasOtherSessions(String userName, String sessionId) {
+        SimpUser user = simpUserRegistry.getUser(userName);
+        return user != null && user.getSessions().stream().anyMatch(session -> !session.getId().equals(sessionId));
+    }
+
+    /**
+     * The user's live sessions, each mapped to whether it takes delta events. Sessions on this node
+     * negotiated that at handshake time. Of sessions on other nodes only the subscriptions are
+     * shared, so those count as delta sessions when they subscribed to the events queue.
+     */
+    public Map<String, Boolean> getSessionFormats(String userName) {
+        Map<String, Boolean> formats = new HashMap<>();
+        SimpUser user = simpUserRegistry.getUser(userName);
+        if (user != null) {
+            for (SimpSession session : user.getSessions()) {
+                formats.put(session.getId(), session.getSubscriptions().stream()
+                        .anyMatch(subscription -> ChatEventService.EVENTS_SUBSCRIPTION.equals(subscription.getDestination())));
+            }
+        }
+        Set<String> userSessions = sessions.get(userName);
+        if (userSessions != null) {
+            userSessions.forEach(sessionId -> formats.put(sessionId, deltaSessions.contains(sessionId)));
+        }
+        return formats;
+    }
+
+    public void recordStatus(String userName, String status) {
+        pending.put(userName, new PendingPresence(status, LocalDateTime.now()));
+    }
+
+    // Status not yet flushed wins over the persisted one
+    public String getStatus(String userName, String persistedStatus) {
+        PendingPresence presence = pending.get(userName);
+        return presence != null ? presence.status() : persistedStatus;
+    }
+
+    public LocalDateTime getLastSeen(String userName, LocalDateTime persistedLastSeen) {
+        PendingPresence presence = pending.get(userName);
+        return presence != null ? presence.lastSeen() : persistedLastSeen;
+    }
+
+    @Scheduled(fixedDelayString = "${chat.presence.flush-interval-ms:5000}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        Map<String, PendingPresence> snapshot = new HashMap<>(pending);
+        BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, User.class);
+        snapshot.forEach((userName, presence) -> bulkOperations.updateOne(
+                Query.query(Criteria.where("userName").is(userName)),
+                new Update().set("status", presence.status()).set("lastSeen", presence.lastSeen())
+        ));
+
+        try {
+            bulkOperations.execute();
+            // Keep entries that changed again while the bulk write was in flight
+            snapshot.forEach(pending::remove);
+            userCache.invalidateAll(snapshot.keySet());
+        } catch (Exception e) {
+            // Left pending, so the next flush retries them
+            log.warn("Failed to flush presence for {} users", snapshot.size(), e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.example.chat.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.*;
+
+/**
+ * Runs presence changes (status bookkeeping and the notifyLoginStatus fan-out) on a bounded
+ * executor so STOMP connect/disconnect events never block the inbound channel. Changes for the
+ * same user are coalesced: while a fan-out is queued or running, later changes only replace the
+ * pending status, and at most one worker handles a given user at a time.
+ */
+@Component
+public class PresenceService {
+
+    private static final Logger log = LoggerFactory.getLogger(PresenceService.class);
+
+    @Autowired
+    PresenceRegistry presenceRegistry;
+
+    @Autowired
+    LoginService loginService;
+
+    private final ThreadPoolExecutor executor;
+
+    private final ConcurrentHashMap<String, String> pendingStatus = new ConcurrentHashMap<>();
+
+    public PresenceService(@Value("${chat.presence.pool-size:4}") int poolSize,
+                           @Value("${chat.presence.queue-capacity:10000}") int queueCapacity) {
+        this.executor = new ThreadPoolExecutor(
+                poolSize, poolSize,
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new CustomizableThreadFactory("presence-"),
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public void publish(String userName, String status) {
+        if (pendingStatus.put(userName, status) != null) {
+            return; // a worker is already scheduled for this user and will pick up the latest status
+        }
+
+        try {
+            executor.execute(() -> drain(userName));
+        } catch (RejectedExecutionException e) {
+            pendingStatus.remove(userName, status);
+            log.warn("Presence queue full, dropping {} update for user: {}", status, userName);
+        }
+    }
+
+    private void drain(String userName) {
+        String status = pendingStatus.get(userName);
+        while (status != null) {
+            try {
+                applyStatus(userName, status);
+            } catch (Exception e) {
+                log.warn("Error publishing {} status for user: {}", status, userName, e);
+            }
+
+            if (pendingStatus.remove(userName, status)) {
+                return;
+            }
+            status = pendingStatus.get(userName);
+        }
+    }
+
+    private void applyStatus(String userName, String status) {
+        presenceRegistry.recordStatus(userName, status);
+        loginService.notifyLoginStatus(userName, status);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+}
@@ -0,0 +1,62 @@
+package com.example.chat.service;
+
+import com.example.chat.entity.User;
+import com.example.chat.repository.UserRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Current token version per userName, so a JWT can be checked for revocation without loading the
+ * user. Bumping User.tokenVersion revokes every token issued before; this node sees it at once
+ * through {@link #invalidate(String)}, other nodes as soon as the invalidation arrives over the
+ * broker relay, and within expire-after-write at the latest.
+ */
+@Component
+public class TokenVersionCache {
+
+    // Users that no longer exist have no valid tokens
+    private static final long NO_USER = -1;
+
+    private static final String CACHE_NAME = "tokenVersions";
+
+    private final UserRepository userRepository;
+    private final CacheInvalidationService cacheInvalidationService;
+    private final Cache<String, Long> versions;
+
+    public TokenVersionCache(UserRepository userRepository,
+                             CacheInvalidationService cacheInvalidationService,
+                             MeterRegistry meterRegistry,
+                             @Value("${chat.cache.token-versions.maximum-size:10000}") long maximumSize,
+                             @Value("${chat.cache.token-versions.expire-after-write:1m}") Duration expireAfterWrite) {
+        this.userRepository = userRepository;
+        this.cacheInvalidationService = cacheInvalidationService;
+        this.versions = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, versions, CACHE_NAME);
+        cacheInvalidationService.register(CACHE_NAME, versions::invalidate, versions::invalidateAll);
+    }
+
+    public boolean isCurrent(String userName, long tokenVersion) {
+        long current = versions.get(userName, key -> {
+            User user = userRepository.findTokenVersionByUserName(key);
+            return user != null ? user.getTokenVersion() : NO_USER;
+        });
+        return current != NO_USER && current == tokenVersion;
+    }
+
+    public void invalidate(String userName) {
+        versions.invalidate(userName);
+        cacheInvalidationService.publish(CACHE_NAME, userName);
+    }
+
+}
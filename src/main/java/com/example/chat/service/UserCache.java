@@ -0,0 +1,149 @@
+package com.example.chat.service;
+
+import com.example.chat.entity.User;
+import com.example.chat.repository.UserRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Read-through cache of User documents keyed by userName, with id and email resolved to the
+ * userName first. Callers always receive a copy, so mutating a returned User never changes the
+ * cached one. Writers must call {@link #invalidate(User)} after saving; in relay mode the
+ * invalidation also reaches the other nodes through CacheInvalidationService.
+ */
+@Component
+public class UserCache {
+
+    private static final String CACHE_NAME = "users";
+
+    private final UserRepository userRepository;
+    private final CacheInvalidationService cacheInvalidationService;
+
+    private final Cache<String, User> usersByUserName;
+    private final Cache<String, String> userNamesById;
+    private final Cache<String, String> userNamesByEmail;
+
+    public UserCache(UserRepository userRepository,
+                     CacheInvalidationService cacheInvalidationService,
+                     MeterRegistry meterRegistry,
+                     @Value("${chat.cache.users.maximum-size:10000}") long maximumSize,
+                     @Value("${chat.cache.users.expire-after-write:10m}") Duration expireAfterWrite) {
+        this.userRepository = userRepository;
+        this.cacheInvalidationService = cacheInvalidationService;
+        this.usersByUserName = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+        this.userNamesById = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .build();
+        this.userNamesByEmail = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, usersByUserName, CACHE_NAME);
+        cacheInvalidationService.register(CACHE_NAME, usersByUserName::invalidate, this::clear);
+    }
+
+    public User getByUserName(String userName) {
+        if (userName == null) {
+            return null;
+        }
+        return copyOf(usersByUserName.get(userName, key -> index(userRepository.findByUserName(key))));
+    }
+
+    public Optional<User> getById(String id) {
+        String userName = userNamesById.getIfPresent(id);
+        if (userName != null) {
+            return Optional.ofNullable(getByUserName(userName));
+        }
+        return userRepository.findById(id).map(user -> copyOf(put(user)));
+    }
+
+    public User getByEmail(String email) {
+        String userName = userNamesByEmail.getIfPresent(email);
+        if (userName != null) {
+            User user = getByUserName(userName);
+            // The mapping outlives an email change made on another node
+            if (user != null && email.equals(user.getEmail())) {
+                return user;
+            }
+            userNamesByEmail.invalidate(email);
+        }
+        User user = userRepository.findUserByEmail(email);
+        return user != null ? copyOf(put(user)) : null;
+    }
+
+    public Map<String, User> getAllByUserNames(Collection<String> userNames) {
+        Map<String, User> cached = usersByUserName.getAll(userNames, missing -> {
+            Map<String, User> loaded = new HashMap<>();
+            for (User user : userRepository.findByUserNameIn(new ArrayList<>(missing))) {
+                loaded.put(user.getUserName(), index(user));
+            }
+            return loaded;
+        });
+
+        Map<String, User> result = new HashMap<>();
+        cached.forEach((userName, user) -> result.put(userName, copyOf(user)));
+        return result;
+    }
+
+    public void invalidate(User user) {
+        usersByUserName.invalidate(user.getUserName());
+        if (user.getId() != null) {
+            userNamesById.invalidate(user.getId());
+        }
+        if (user.getEmail() != null) {
+            userNamesByEmail.invalidate(user.getEmail());
+        }
+        cacheInvalidationService.publish(CACHE_NAME, user.getUserName());
+    }
+
+    public void invalidateAll(Collection<String> userNames) {
+        usersByUserName.invalidateAll(userNames);
+        cacheInvalidationService.publish(CACHE_NAME, List.copyOf(userNames));
+    }
+
+    private void clear() {
+        usersByUserName.invalidateAll();
+        userNamesById.invalidateAll();
+        userNamesByEmail.invalidateAll();
+    }
+
+    private User put(User user) {
+        usersByUserName.put(user.getUserName(), index(user));
+        return user;
+    }
+
+    private User index(User user) {
+        if (user != null) {
+            userNamesById.put(user.getId(), user.getUserName());
+            userNamesByEmail.put(user.getEmail(), user.getUserName());
+        }
+        return user;
+    }
+
+    private static User copyOf(User user) {
+        if (user == null) {
+            return null;
+        }
+        User copy = new User();
+        BeanUtils.copyProperties(user, copy);
+        if (user.getRoles() != null) {
+            copy.setRoles(new ArrayList<>(user.getRoles()));
+        }
+        return copy;
+    }
+
+}
@@ -1,9 +1,23 @@
 package com.example.chat.service;
 import com.example.chat.entity.*;
 import com.example.chat.repository.UserConnectionRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.*;
 
 @Component
@@ -12,6 +26,33 @@ public class UserConnectionService {
     @Autowired
     UserConnectionRepository userConnectionRepository;
 
+    @Autowired
+    MongoTemplate mongoTemplate;
+
+    private static final String CACHE_NAME = "connections";
+
+    // Write-through cache keyed by participants; entries are only ever replaced by a newer version.
+    // Other nodes drop their copy when a write is published through CacheInvalidationService.
+    private final Cache<String, UserConnection> connectionsByParticipants;
+    private final CacheInvalidationService cacheInvalidationService;
+
+    public UserConnectionService(CacheInvalidationService cacheInvalidationService,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${chat.cache.connections.maximum-size:50000}") long maximumSize,
+                                 @Value("${chat.cache.connections.expire-after-access:30m}") Duration expireAfterAccess) {
+        this.connectionsByParticipants = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterAccess(expireAfterAccess)
+                .softValues()
+                .recordStats()
+                .build();
+
+        this.cacheInvalidationService = cacheInvalidationService;
+
+        CaffeineCacheMetrics.monitor(meterRegistry, connectionsByParticipants, CACHE_NAME);
+        cacheInvalidationService.register(CACHE_NAME, connectionsByParticipants::invalidate, connectionsByParticipants::invalidateAll);
+    }
+
     public List<UserConnection> getAllConnectionsById(String id) {
         return userConnectionRepository.findByUserId1OrUserId2(id);
     }
@@ -25,19 +66,187 @@ public class UserConnectionService {
     }
 
     public UserConnection getConnection(String participants) {
-        return userConnectionRepository.findByParticipants(participants);
+        return copyOf(connectionsByParticipants.get(participants, userConnectionRepository::findByParticipants));
     }
 
+    /**
+     * Saves the whole document. The save is rejected with an {@link OptimisticLockingFailureException}
+     * when the connection changed since it was read; the cached entry is dropped in that case.
+     */
     public UserConnection saveConnection(UserConnection userConnection){
-        return userConnectionRepository.save(userConnection);
+        try {
+            UserConnection saved = userConnectionRepository.save(userConnection);
+            cacheLatest(saved);
+            cacheInvalidationService.publish(CACHE_NAME, saved.getParticipants());
+            return saved;
+        } catch (OptimisticLockingFailureException e) {
+            connectionsByParticipants.invalidate(userConnection.getParticipants());
+            throw e;
+        }
     }
 
     public void saveManyConnections(List<UserConnection> userConnectionsList) {
-        userConnectionRepository.saveAll(userConnectionsList);
+        List<String> participants = new ArrayList<>();
+        for (UserConnection saved : userConnectionRepository.saveAll(userConnectionsList)) {
+            cacheLatest(saved);
+            participants.add(saved.getParticipants());
+        }
+        cacheInvalidationService.publish(CACHE_NAME, participants);
+    }
+
+    public void deleteConnection(UserConnection userConnection) {
+        userConnectionRepository.deleteById(userConnection.getId());
+        connectionsByParticipants.invalidate(userConnection.getParticipants());
+        cacheInvalidationService.publish(CACHE_NAME, userConnection.getParticipants());
+    }
+
+    void cacheLatest(UserConnection userConnection) {
+        connectionsByParticipants.asMap().merge(userConnection.getParticipants(), copyOf(userConnection),
+                (cached, latest) -> versionOf(latest) >= versionOf(cached) ? latest : cached);
+    }
+
+    private static long versionOf(UserConnection userConnection) {
+        return userConnection.getVersion() != null ? userConnection.getVersion() : -1;
+    }
+
+    private static UserConnection copyOf(UserConnection userConnection) {
+        if (userConnection == null) {
+            return null;
+        }
+        UserConnection copy = new UserConnection();
+        BeanUtils.copyProperties(userConnection, copy);
+        return copy;
+    }
+
+    public ConnectionUpdate update(UserConnection userConnection) {
+        return new ConnectionUpdate(userConnection);
+    }
+
+    /**
+     * Applies only the changed fields with one findAndModify and bumps the version, so concurrent
+     * writers never overwrite each other's fields. Returns the updated connection, or null when it
+     * no longer exists. The cached entry is replaced with the result, so a block or unblock is seen
+     * by the next message on this node without another read; other nodes drop their copy.
+     */
+    public UserConnection updateConnection(ConnectionUpdate connectionUpdate) {
+        String participants = connectionUpdate.connection.getParticipants();
+        if (connectionUpdate.isEmpty()) {
+            return getConnection(participants);
+        }
+
+        UserConnection updated;
+        try {
+            updated = mongoTemplate.findAndModify(
+                    Query.query(Criteria.where("participants").is(participants)),
+                    connectionUpdate.update.inc("version", 1),
+                    FindAndModifyOptions.options().returnNew(true),
+                    UserConnection.class
+            );
+        } catch (RuntimeException e) {
+            // The write may have been applied anyway; don't keep serving the state from before it
+            connectionsByParticipants.invalidate(participants);
+            cacheInvalidationService.publish(CACHE_NAME, participants);
+            throw e;
+        }
+
+        cacheInvalidationService.publish(CACHE_NAME, participants);
+        if (updated == null) {
+            connectionsByParticipants.invalidate(participants);
+            return null;
+        }
+        cacheLatest(updated);
+        return copyOf(updated);
+    }
+
+    public UserConnection incrementUnread(UserConnection userConnection, String receiver, long delta) {
+        return updateConnection(update(userConnection).incrementUnread(receiver, delta));
+    }
+
+    public UserConnection resetUnread(UserConnection userConnection, String receiver) {
+        return updateConnection(update(userConnection).resetUnread(receiver));
+    }
+
+    /**
+     * Field-level changes to one connection. Per-user fields are addressed by userName, so callers
+     * don't have to work out whether a participant is user1 or user2.
+     */
+    public static class ConnectionUpdate {
+
+        private final UserConnection connection;
+        private final Update update = new Update();
+        private boolean empty = true;
+
+        private ConnectionUpdate(UserConnection connection) {
+            this.connection = connection;
+        }
+
+        private boolean isUser1(String userName) {
+            return connection.getUserName1().equals(userName);
+        }
+
+        private ConnectionUpdate set(String field, Object value) {
+            update.set(field, value);
+            empty = false;
+            return this;
+        }
+
+        public ConnectionUpdate chatOpened(String userName, boolean opened) {
+            return set(isUser1(userName) ? "user1ChatOpened" : "user2ChatOpened", opened);
+        }
+
+        public ConnectionUpdate blocked(String byUserName, boolean blocked) {
+            return set(isUser1(byUserName) ? "isBlockedByUser1" : "isBlockedByUser2", blocked);
+        }
+
+        public ConnectionUpdate connectionDeleted(String byUserName, boolean deleted) {
+            return set(isUser1(byUserName) ? "isConnectionDeletedByUser1" : "isConnectionDeletedByUser2", deleted);
+        }
+
+        public ConnectionUpdate chatCleared(String byUserName, LocalDateTime clearedAt) {
+            return set(isUser1(byUserName) ? "recentChatClearedByUser1" : "recentChatClearedByUser2", clearedAt);
+        }
+
+        // A null conversation clears the slot
+        public ConnectionUpdate user1LastConversation(UserConversation conversation, LocalDateTime at) {
+            return lastConversation("user1", conversation, at);
+        }
+
+        public ConnectionUpdate user2LastConversation(UserConversation conversation, LocalDateTime at) {
+            return lastConversation("user2", conversation, at);
+        }
+
+        private ConnectionUpdate lastConversation(String prefix, UserConversation conversation, LocalDateTime at) {
+            boolean isNull = conversation == null;
+            set(prefix + "LastConversation", isNull ? null : conversation.getMessage());
+            set(prefix + "LastConversationId", isNull ? null : conversation.getId());
+            set(prefix + "LastConversationAt", isNull ? null : at);
+            return set(prefix + "LastConversationType", isNull ? null : conversation.getMessageType());
+        }
+
+        public ConnectionUpdate incrementUnread(String receiver, long delta) {
+            if (delta != 0) {
+                update.inc(unreadField(connection, receiver), delta);
+                empty = false;
+            }
+            return this;
+        }
+
+        public ConnectionUpdate resetUnread(String receiver) {
+            return set(unreadField(connection, receiver), 0L);
+        }
+
+        public boolean isEmpty() {
+            return empty;
+        }
+    }
+
+    public static long getUnreadCount(UserConnection userConnection, String receiver) {
+        long count = userConnection.getUserName1().equals(receiver) ? userConnection.getUnReadMsgsOfUser1() : userConnection.getUnReadMsgsOfUser2();
+        return Math.max(count, 0);
     }
 
-    public void deleteConnection(String id) {
-        userConnectionRepository.deleteById(id);
+    private static String unreadField(UserConnection userConnection, String receiver) {
+        return userConnection.getUserName1().equals(receiver) ? "unReadMsgsOfUser1" : "unReadMsgsOfUser2";
     }
 
     public static String getSortedUserKey(String user1, String user2) {
@@ -2,26 +2,122 @@ package com.example.chat.service;
 import com.example.chat.entity.*;
 import com.example.chat.repository.*;
 import com.example.chat.service.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Component;
 
+import java.time.LocalDateTime;
 import java.util.*;
 
 @Component
 public class UserConversationService {
 
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int MAX_PAGE_SIZE = 200;
+
     @Autowired
     UserConversationRepository userConversationRepository;
 
-    public Set<UserConversation> getConversations(Set<String> ids){
-        List<UserConversation> iterable = userConversationRepository.findAllById(ids);
-        Set<UserConversation> result = new TreeSet<>(
-                Comparator.comparing(UserConversation::getCreatedAt)
-                        .thenComparing(UserConversation::getId)
-                        .reversed()
-        );
-        result.addAll(iterable);
-        return result;
+    @Autowired
+    MongoTemplate mongoTemplate;
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class ConversationPage {
+        private List<UserConversation> conversations;
+        private boolean hasMore;
+    }
+
+    public Set<UserConversation> getConversations(String participants){
+        return new LinkedHashSet<>(userConversationRepository.findByParticipantsOrderByCreatedAtDescIdDesc(participants));
+    }
+
+    /**
+     * Reads one page of a chat's history through the (participants, createdAt, _id) index.
+     * Without a cursor the latest page is returned; {@code before} pages backwards and
+     * {@code after} pages forwards. Messages are always returned oldest first.
+     */
+    public ConversationPage getConversationPage(String participants, String userName, LocalDateTime clearedAt,
+                                                LocalDateTime before, String beforeId,
+                                                LocalDateTime after, String afterId, int size) {
+        int pageSize = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        boolean forward = after != null;
+
+        List<Criteria> filters = new ArrayList<>();
+        filters.add(new Criteria().norOperator(
+                Criteria.where("sender").is(userName).and("messageDeletedByUser1").is(true),
+                Criteria.where("receiver").is(userName).and("messageDeletedByUser2").is(true)
+        ));
+        if (clearedAt != null) {
+            filters.add(Criteria.where("createdAt").gt(clearedAt));
+        }
+        if (forward) {
+            filters.add(cursorCriteria(after, afterId, true));
+        } else if (before != null) {
+            filters.add(cursorCriteria(before, beforeId, false));
+        }
+
+        Sort.Direction direction = forward ? Sort.Direction.ASC : Sort.Direction.DESC;
+        Query query = new Query(Criteria.where("participants").is(participants).andOperator(filters))
+                .with(Sort.by(direction, "createdAt", "id"))
+                .limit(pageSize + 1);
+
+        List<UserConversation> conversations = new ArrayList<>(mongoTemplate.find(query, UserConversation.class));
+        boolean hasMore = conversations.size() > pageSize;
+        if (hasMore) {
+            conversations.remove(pageSize);
+        }
+        if (!forward) {
+            Collections.reverse(conversations);
+        }
+
+        return new ConversationPage(conversations, hasMore);
+    }
+
+    private static Criteria cursorCriteria(LocalDateTime createdAt, String id, boolean forward) {
+        Criteria createdAtCriteria = forward
+                ? Criteria.where("createdAt").gt(createdAt)
+                : Criteria.where("createdAt").lt(createdAt);
+        if (id == null) {
+            return createdAtCriteria;
+        }
+        Criteria sameInstant = forward
+                ? Criteria.where("createdAt").is(createdAt).and("id").gt(id)
+                : Criteria.where("createdAt").is(createdAt).and("id").lt(id);
+        return new Criteria().orOperator(createdAtCriteria, sameInstant);
+    }
+
+    /**
+     * Counts unread messages for many chats in one aggregation, keyed by participants and then by receiver.
+     */
+    public Map<String, Map<String, Long>> getUnreadCounts(Collection<String> participants) {
+        Map<String, Map<String, Long>> counts = new HashMap<>();
+        if (participants.isEmpty()) {
+            return counts;
+        }
+        for (UserConversationRepository.UnreadCount unreadCount : userConversationRepository.countUnreadByReceiver(participants)) {
+            counts.computeIfAbsent(unreadCount.getParticipants(), key -> new HashMap<>())
+                    .put(unreadCount.getReceiver(), unreadCount.getCount());
+        }
+        return counts;
+    }
+
+    public List<UserConversation> getConversations(String participants, Collection<String> ids) {
+        return userConversationRepository.findByParticipantsAndIdIn(participants, ids);
+    }
+
+    /**
+     * Whether the message still counts towards the receiver's unread counter.
+     */
+    public static boolean isUnreadForReceiver(UserConversation userConversation) {
+        return !"Read".equals(userConversation.getStatus()) && !userConversation.isMessageDeletedByUser2();
     }
 
     public Optional<UserConversation> getConversation(String id){
@@ -36,39 +132,58 @@ public class UserConversationService {
         userConversationRepository.saveAll(userConversations);
     }
 
+    // New messages only: a single insertMany instead of one save round trip per message
+    public List<UserConversation> insertConversations(List<UserConversation> userConversations) {
+        if (userConversations.isEmpty()) {
+            return List.of();
+        }
+        return userConversationRepository.insert(userConversations);
+    }
+
+    /**
+     * Moves every Sent message addressed to the receiver in the given chats to Delivered with one updateMany.
+     * @return the number of messages that changed status
+     */
+    public long markDelivered(Collection<String> participants, String receiver, LocalDateTime watermark) {
+        if (participants.isEmpty()) {
+            return 0;
+        }
+        return userConversationRepository.markDelivered(participants, receiver, watermark);
+    }
+
+    /**
+     * Marks every message the receiver can still see in the chat, created up to the watermark, as Read with one updateMany.
+     * @return the number of messages that changed status
+     */
+    public long markRead(String participants, String receiver, LocalDateTime watermark) {
+        return userConversationRepository.markRead(participants, receiver, watermark);
+    }
+
     public void deleteConversation(String id) {
         userConversationRepository.deleteById(id);
     }
 
-    public void deleteManyConversation(List<String> ids) {
-        userConversationRepository.deleteAllById(ids);
+    public void deleteManyConversation(String participants, Collection<String> ids) {
+        userConversationRepository.deleteByParticipantsAndIdIn(participants, ids);
     }
 
-    public UserConversation getLastConversationExcludeId(Set<String> ids, Set<String> excludeIds, String userName) {
-        Set<UserConversation> userConversations = getConversations(ids);
-
-        return userConversations.stream()
-                .filter(conversation ->
-                        !excludeIds.contains(conversation.getId())
-                        && (
-                            (conversation.getSender().equals(userName) && !conversation.isMessageDeletedByUser1())
-                                    ||
-                            (conversation.getReceiver().equals(userName) && !conversation.isMessageDeletedByUser2())
-                        )
-                ).max(Comparator.comparing(UserConversation::getCreatedAt))
-                .orElse(null); // or throw an exception if that's preferable
+    public UserConversation getLastConversationExcludeId(String participants, Set<String> excludeIds, String userName) {
+        Query query = new Query(visibleTo(participants, userName).and("id").nin(excludeIds))
+                .with(Sort.by(Sort.Direction.DESC, "createdAt", "id"));
+        return mongoTemplate.findOne(query, UserConversation.class);
     }
 
-    public UserConversation getLastConversation(Set<String> ids, String userName) {
-        Set<UserConversation> userConversations = getConversations(ids);
+    public UserConversation getLastConversation(String participants, String userName) {
+        Query query = new Query(visibleTo(participants, userName))
+                .with(Sort.by(Sort.Direction.DESC, "createdAt", "id"));
+        return mongoTemplate.findOne(query, UserConversation.class);
+    }
 
-        return userConversations.stream()
-                .filter(conversation ->
-                                ((conversation.getSender().equals(userName) && !conversation.isMessageDeletedByUser1())
-                                || (conversation.getReceiver().equals(userName) && !conversation.isMessageDeletedByUser2()))
-                )
-                .findFirst()
-                .orElse(null); // or throw an exception if that's preferable
+    private static Criteria visibleTo(String participants, String userName) {
+        return Criteria.where("participants").is(participants).orOperator(
+                Criteria.where("sender").is(userName).and("messageDeletedByUser1").is(false),
+                Criteria.where("receiver").is(userName).and("messageDeletedByUser2").is(false)
+        );
     }
 
 }
@@ -1,30 +1,64 @@
 package com.example.chat.service;
 
 import com.example.chat.entity.User;
-import com.example.chat.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Component;
 
 @Component
-public class UserDetailsImpl implements UserDetailsService {
+public class UserDetailsImpl implements UserDetailsService, UserDetailsPasswordService {
 
     @Autowired
-    UserRepository userRepository;
+    UserCache userCache;
+
+    @Autowired
+    MongoTemplate mongoTemplate;
 
     @Override
     public UserDetails loadUserByUsername(String userName) throws UsernameNotFoundException {
-        User user = userRepository.findByUserName(userName);
+        // Not from UserCache: a password changed on another node must stop working here at once
+        User user = mongoTemplate.findOne(new Query(Criteria.where("userName").is(userName)), User.class);
         if (user != null){
-            return org.springframework.security.core.userdetails.User.builder()
-                    .username(user.getUserName())
-                    .password(user.getPassword())
-                    .roles(user.getRoles().toArray(new String[0]))
-                    .build();
+            return buildUserDetails(user);
         }
         throw new UsernameNotFoundException("User not found with username : " + userName);
     }
 
+    /**
+     * Called after a successful login whose hash was made with another BCrypt strength than configured.
+     * Only the password field is written, and tokens stay valid since the password itself is unchanged.
+     */
+    @Override
+    public UserDetails updatePassword(UserDetails userDetails, String newPassword) {
+        User user = userCache.getByUserName(userDetails.getUsername());
+        if (user == null) {
+            return userDetails;
+        }
+
+        mongoTemplate.updateFirst(
+                new Query(Criteria.where("userName").is(user.getUserName())),
+                new Update().set("password", newPassword),
+                User.class
+        );
+        userCache.invalidate(user);
+
+        user.setPassword(newPassword);
+        return buildUserDetails(user);
+    }
+
+    private static UserDetails buildUserDetails(User user) {
+        return org.springframework.security.core.userdetails.User.builder()
+                .username(user.getUserName())
+                .password(user.getPassword())
+                .roles(user.getRoles().toArray(new String[0]))
+                .build();
+    }
+
 }
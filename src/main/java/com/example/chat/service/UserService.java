@@ -5,23 +5,43 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDateTime;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
 
 @Component
 public class UserService {
 
+    public static final int DEFAULT_SEARCH_PAGE_SIZE = 20;
+    public static final int MAX_SEARCH_PAGE_SIZE = 50;
+
     @Autowired
     UserRepository userRepository;
 
     @Autowired
     PasswordEncoder encoder;
 
+    @Autowired
+    PresenceRegistry presenceRegistry;
+
+    @Autowired
+    UserCache userCache;
+
+    @Autowired
+    TokenVersionCache tokenVersionCache;
+
+    @Autowired
+    MongoTemplate mongoTemplate;
+
     @Data
     @AllArgsConstructor
     @NoArgsConstructor
@@ -34,45 +54,95 @@ public class UserService {
     }
     
     public Optional<User> getUserById(String id){
-        return userRepository.findById(id);
+        return userCache.getById(id);
     }
 
     public User getUserByUserName(String userName){
-        return userRepository.findByUserName(userName);
+        return userCache.getByUserName(userName);
+    }
+
+    public Map<String, User> getUsersByUserNames(Collection<String> userNames) {
+        return userCache.getAllByUserNames(userNames);
     }
 
     public String getUserNameByEmail(String email) {
-        User user = userRepository.findUserByEmail(email);
+        User user = userCache.getByEmail(email);
         return user != null ? user.getUserName() : null;
     }
 
-    public void saveUser(User user) {
-        userRepository.save(user);
+    /**
+     * Sets a new password and revokes every token issued before, for the password reset flow.
+     */
+    public boolean changePassword(String email, String newPassword) {
+        return updateUser(Criteria.where("email").is(email), passwordUpdate(newPassword)) != null;
     }
 
-    public void changePassword(String email, String newPassword) {
-        User user = userRepository.findUserByEmail(email);
-        user.setPassword(encoder.encode(newPassword));
-        userRepository.save(user);
+    /**
+     * Same, but only if {@code oldPassword} is the current one. The check reads the stored hash rather
+     * than the cached user, and the write is conditional on that hash, so two concurrent changes
+     * cannot both succeed.
+     */
+    public boolean changePassword(String userName, String oldPassword, String newPassword) {
+        User current = userRepository.findByUserName(userName);
+        if (current == null || !encoder.matches(oldPassword, current.getPassword())) {
+            return false;
+        }
+        Criteria unchanged = Criteria.where("userName").is(userName).and("password").is(current.getPassword());
+        return updateUser(unchanged, passwordUpdate(newPassword)) != null;
+    }
+
+    private Update passwordUpdate(String newPassword) {
+        return new Update().set("password", encoder.encode(newPassword)).inc("tokenVersion", 1);
+    }
+
+    public void updateProfilePicture(String userName, String profilePicture) {
+        updateUser(Criteria.where("userName").is(userName), new Update().set("profilePicture", profilePicture));
+    }
+
+    /**
+     * Writes only the given fields, so a concurrent change to any other field (the password, the
+     * token version, presence) is never overwritten by a stale copy of the user.
+     */
+    private User updateUser(Criteria criteria, Update update) {
+        User updated = mongoTemplate.findAndModify(
+                new Query(criteria),
+                update,
+                FindAndModifyOptions.options().returnNew(true),
+                User.class
+        );
+        if (updated != null) {
+            userCache.invalidate(updated);
+            tokenVersionCache.invalidate(updated.getUserName());
+        }
+        return updated;
     }
 
     public boolean isUserOnline(String userName) {
-        return userRepository.findByUserName(userName).getStatus().equals("online");
+        return presenceRegistry.isOnline(userName);
+    }
+
+    /**
+     * Users whose userName starts with {@code search} (ignoring case), or whose email is exactly
+     * {@code search}, excluding the searching user. The anchored regex on userNameLower and the
+     * email match are both served by indexes, and only the UserDTO fields are read.
+     */
+    public List<UserDTO> getUsersBySearch(String search, String userName, int page, int size) {
+        int pageSize = Math.max(1, Math.min(size, MAX_SEARCH_PAGE_SIZE));
+
+        Query query = new Query(new Criteria().orOperator(
+                        Criteria.where("userNameLower").regex("^" + escapeRegex(search.toLowerCase(Locale.ROOT))),
+                        Criteria.where("email").is(search)
+                ).and("userName").ne(userName))
+                .with(Sort.by(Sort.Direction.ASC, "userNameLower"))
+                .skip((long) Math.max(0, page) * pageSize)
+                .limit(pageSize);
+        query.fields().include("userName", "status", "profilePicture", "lastSeen");
+
+        return mongoTemplate.find(query, UserDTO.class, mongoTemplate.getCollectionName(User.class));
     }
 
-    public List<UserDTO> getUsersBySearch(String search, String userName) {
-        List<User> users = userRepository.findAll();
-        return users.stream()
-                .filter(user ->
-                        !user.getUserName().equals(userName) &&
-                        (user.getUserName().startsWith(search) || user.getEmail().equals(search)))
-                .map(user -> new UserDTO(
-                        user.getId(),
-                        user.getUserName(),
-                        user.getStatus(),
-                        user.getProfilePicture(),
-                        user.getLastSeen()
-                ))
-                .toList();
+    // Escapes regex metacharacters so the search text is matched literally
+    private static String escapeRegex(String text) {
+        return text.replaceAll("[\\\\^$.|?*+()\\[\\]{}]", "\\\\$0");
     }
 }
@@ -0,0 +1,43 @@
+package com.example.chat;
+
+import org.apache.activemq.artemis.core.config.impl.ConfigurationImpl;
+import org.apache.activemq.artemis.core.server.embedded.EmbeddedActiveMQ;
+
+import java.net.ServerSocket;
+import java.nio.file.Path;
+
+/**
+ * An in-memory Artemis broker speaking STOMP on a free port, standing in for the RabbitMQ or
+ * ActiveMQ that nodes share in relay mode.
+ */
+public class EmbeddedStompBroker {
+
+    private final EmbeddedActiveMQ broker = new EmbeddedActiveMQ();
+    private final int port;
+
+    public EmbeddedStompBroker(Path dir) throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        ConfigurationImpl configuration = new ConfigurationImpl();
+        configuration.setPersistenceEnabled(false);
+        configuration.setSecurityEnabled(false);
+        configuration.setBrokerInstance(dir.toFile());
+        configuration.addAcceptorConfiguration("stomp", "tcp://localhost:" + port + "?protocols=STOMP;multicastPrefix=/topic/");
+        broker.setConfiguration(configuration);
+    }
+
+    public EmbeddedStompBroker start() throws Exception {
+        broker.start();
+        return this;
+    }
+
+    public void stop() throws Exception {
+        broker.stop();
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+}
@@ -0,0 +1,195 @@
+package com.example.chat.config;
+
+import com.example.chat.EmbeddedStompBroker;
+import com.example.chat.security.JwtHandshakeInterceptor;
+import com.example.chat.security.WebSocketTicketService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.DispatcherServletAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.ServletWebServerFactoryAutoConfiguration;
+import org.springframework.boot.autoconfigure.websocket.servlet.WebSocketServletAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.messaging.converter.StringMessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.*;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.lang.reflect.Type;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Starts the WebSocket/STOMP side of the application with chat.broker.mode=relay against an
+ * embedded broker, and checks that a browser-style client subscribed through the app receives
+ * what another node publishes to the broker, and the other way round.
+ */
+class WebSocketRelayTest {
+
+    private static final String TOPIC = "/topic/relay-test";
+
+    @TempDir
+    static Path brokerDir;
+
+    private static EmbeddedStompBroker broker;
+
+    private ConfigurableApplicationContext context;
+    private ThreadPoolTaskScheduler scheduler;
+
+    @Configuration
+    @Import({WebSocketConfig.class, JwtHandshakeInterceptor.class})
+    @ImportAutoConfiguration({
+            ServletWebServerFactoryAutoConfiguration.class,
+            DispatcherServletAutoConfiguration.class,
+            WebSocketServletAutoConfiguration.class
+    })
+    static class RelayApplication {
+
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+
+        // Nonces are only recorded, so Mongo can be left out
+        @Bean
+        WebSocketTicketService webSocketTicketService() {
+            return new WebSocketTicketService("relay-test-secret", Duration.ofMinutes(1), "relay", mock(MongoTemplate.class));
+        }
+    }
+
+    @BeforeAll
+    static void startBroker() throws Exception {
+        broker = new EmbeddedStompBroker(brokerDir).start();
+    }
+
+    @AfterAll
+    static void stopBroker() throws Exception {
+        broker.stop();
+    }
+
+    @AfterEach
+    void stopApplication() {
+        if (context != null) {
+            context.close();
+        }
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    void clientSubscribedThroughTheAppReceivesBrokerMessages() throws Exception {
+        context = new SpringApplicationBuilder(RelayApplication.class)
+                .web(WebApplicationType.SERVLET)
+                // As arguments, so they win over application.properties
+                .run(
+                        "--server.port=0",
+                        "--chat.broker.mode=relay",
+                        "--chat.broker.relay.host=localhost",
+                        "--chat.broker.relay.port=" + broker.getPort()
+                );
+        int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+        String contextPath = context.getEnvironment().getProperty("server.servlet.context-path", "");
+        String ticket = context.getBean(WebSocketTicketService.class).issue("alice");
+
+        scheduler = new ThreadPoolTaskScheduler();
+        scheduler.initialize();
+
+        WebSocketStompClient browser = new WebSocketStompClient(new StandardWebSocketClient());
+        browser.setMessageConverter(new StringMessageConverter());
+        browser.setTaskScheduler(scheduler);
+        List<String> received = new CopyOnWriteArrayList<>();
+        StompSession browserSession = browser
+                .connectAsync("ws://localhost:" + port + contextPath + "/ws-chat/websocket?sender=alice&key=" + ticket, new StompSessionHandlerAdapter() {
+                })
+                .get(10, TimeUnit.SECONDS);
+        browserSession.subscribe(TOPIC, new CollectingHandler(received));
+
+        ReactorNettyTcpStompClient otherNode = new ReactorNettyTcpStompClient("localhost", broker.getPort());
+        otherNode.setMessageConverter(new StringMessageConverter());
+        otherNode.setTaskScheduler(scheduler);
+        StompHeaders connect = new StompHeaders();
+        connect.setLogin("guest");
+        connect.setPasscode("guest");
+        connect.setHost("localhost");
+        StompSession otherNodeSession = otherNode.connectAsync(connect, new StompSessionHandlerAdapter() {
+        }).get(10, TimeUnit.SECONDS);
+        try {
+            // The relayed SUBSCRIBE reaches the broker asynchronously, so publish until it is in place
+            await(() -> {
+                otherNodeSession.send(TOPIC, "hello");
+                sleep(50);
+                return !received.isEmpty();
+            });
+            assertThat(received).allMatch("hello"::equals);
+
+            // And the other way: what this node publishes reaches subscribers on other nodes
+            List<String> relayed = new CopyOnWriteArrayList<>();
+            otherNodeSession.subscribe(TOPIC + ".out", new CollectingHandler(relayed));
+            SimpMessagingTemplate template = context.getBean(SimpMessagingTemplate.class);
+            await(() -> {
+                template.convertAndSend(TOPIC + ".out", "hi");
+                sleep(50);
+                return !relayed.isEmpty();
+            });
+            assertThat(relayed).allMatch("hi"::equals);
+        } finally {
+            otherNodeSession.disconnect();
+            otherNode.shutdown();
+            browserSession.disconnect();
+        }
+    }
+
+    private record CollectingHandler(List<String> received) implements StompFrameHandler {
+
+        @Override
+        public Type getPayloadType(StompHeaders headers) {
+            return String.class;
+        }
+
+        @Override
+        public void handleFrame(StompHeaders headers, Object payload) {
+            received.add((String) payload);
+        }
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Condition not met within 10 seconds");
+            }
+            sleep(10);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,147 @@
+package com.example.chat.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BoundedPasswordEncoderTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private BoundedPasswordEncoder encoder;
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        encoder.shutdown();
+    }
+
+    @Test
+    void encodesAndMatches() {
+        encoder = new BoundedPasswordEncoder(4, 2, 10, Duration.ofSeconds(5), meterRegistry);
+
+        String hash = encoder.encode("secret");
+
+        assertThat(encoder.matches("secret", hash)).isTrue();
+        assertThat(encoder.matches("wrong", hash)).isFalse();
+    }
+
+    @Test
+    void upgradeEncodingFlagsHashesWithAnotherCost() {
+        encoder = new BoundedPasswordEncoder(5, 1, 1, Duration.ofSeconds(5), meterRegistry);
+
+        assertThat(encoder.upgradeEncoding(new BCryptPasswordEncoder(4).encode("secret"))).isTrue();
+        assertThat(encoder.upgradeEncoding(new BCryptPasswordEncoder(5).encode("secret"))).isFalse();
+        assertThat(encoder.upgradeEncoding("$2y$05$abcdefghijklmnopqrstuuABCDEFGHIJKLMNOPQRSTUVWXYZ01234")).isFalse();
+        assertThat(encoder.upgradeEncoding("$2b$12$abcdefghijklmnopqrstuuABCDEFGHIJKLMNOPQRSTUVWXYZ01234")).isTrue();
+        assertThat(encoder.upgradeEncoding("plain-text")).isFalse();
+        assertThat(encoder.upgradeEncoding(null)).isFalse();
+    }
+
+    @Test
+    void waitingLongerThanTheTimeoutFailsFast() throws Exception {
+        encoder = new BoundedPasswordEncoder(4, 1, 10, Duration.ofMillis(100), meterRegistry);
+        CountDownLatch started = new CountDownLatch(1);
+        CompletableFuture<String> blocker = CompletableFuture.supplyAsync(() -> encoder.encode(blockingPassword(started)));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThatThrownBy(() -> encoder.encode("queued"))
+                .isInstanceOfSatisfying(PasswordHashingBusyException.class, e -> {
+                    assertThat(e.getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+                    assertThat(e.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("1");
+                });
+
+        // The caller holding the pool thread hits the same deadline
+        assertThatThrownBy(blocker::join).hasCauseInstanceOf(PasswordHashingBusyException.class);
+        assertThat(rejected()).isEqualTo(2.0);
+    }
+
+    @Test
+    void fullQueueIsRejectedWithoutWaiting() throws Exception {
+        encoder = new BoundedPasswordEncoder(4, 1, 1, Duration.ofSeconds(5), meterRegistry);
+        CountDownLatch started = new CountDownLatch(1);
+        CompletableFuture<String> running = CompletableFuture.supplyAsync(() -> encoder.encode(blockingPassword(started)));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        AtomicReference<Thread> queuedCaller = new AtomicReference<>();
+        CompletableFuture<String> queued = CompletableFuture.supplyAsync(() -> {
+            queuedCaller.set(Thread.currentThread());
+            return encoder.encode("queued");
+        });
+        awaitWaiting(queuedCaller);
+
+        long start = System.nanoTime();
+        assertThatThrownBy(() -> encoder.encode("rejected")).isInstanceOf(PasswordHashingBusyException.class);
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(1));
+        assertThat(rejected()).isEqualTo(1.0);
+
+        release.countDown();
+        String runningHash = running.get(5, TimeUnit.SECONDS);
+        String queuedHash = queued.get(5, TimeUnit.SECONDS);
+        // Checked outside the saturated encoder, which would race its own queue
+        BCryptPasswordEncoder bcrypt = new BCryptPasswordEncoder();
+        assertThat(bcrypt.matches("secret", runningHash)).isTrue();
+        assertThat(bcrypt.matches("queued", queuedHash)).isTrue();
+    }
+
+    // Hashing starts by reading the password, so this holds the pool thread until released
+    private CharSequence blockingPassword(CountDownLatch started) {
+        return new CharSequence() {
+            @Override
+            public String toString() {
+                started.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "secret";
+            }
+
+            @Override
+            public int length() {
+                return toString().length();
+            }
+
+            @Override
+            public char charAt(int index) {
+                return toString().charAt(index);
+            }
+
+            @Override
+            public CharSequence subSequence(int start, int end) {
+                return toString().subSequence(start, end);
+            }
+        };
+    }
+
+    // The caller has submitted its task once it parks in Future.get
+    private static void awaitWaiting(AtomicReference<Thread> caller) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            Thread thread = caller.get();
+            if (thread != null && thread.getState() == Thread.State.TIMED_WAITING) {
+                return;
+            }
+            Thread.sleep(5);
+        }
+        throw new AssertionError("Caller never started waiting");
+    }
+
+    private double rejected() {
+        return meterRegistry.get("chat.security.password.rejected").counter().count();
+    }
+
+}
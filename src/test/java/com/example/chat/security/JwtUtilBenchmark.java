@@ -0,0 +1,71 @@
+package com.example.chat.security;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.core.env.StandardEnvironment;
+
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of verifying one token: building a parser per call (as before the parser was kept),
+ * the shared parser alone, and JwtUtil.parseClaims answered from the validated-token cache.
+ * Not part of the test run; start it from main.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtUtilBenchmark {
+
+    // JwtUtil's key when chat.jwt.keys is not set
+    private static final SecretKey DEFAULT_KEY = Keys.hmacShaKeyFor("TXlTdXBlclNlY3JldEtleTEyMzQ1NiE=".getBytes(StandardCharsets.UTF_8));
+
+    private JwtUtil cached;
+    private JwtUtil uncached;
+    private String token;
+
+    @Setup
+    public void setUp() {
+        cached = jwtUtil(50000);
+        // A cache that holds nothing leaves only the shared parser
+        uncached = jwtUtil(0);
+        token = cached.generateToken("alice", List.of("ROLE_USER"), 0);
+        cached.parseClaims(token);
+    }
+
+    @Benchmark
+    public Claims parserPerCall() {
+        return Jwts.parserBuilder().setSigningKey(DEFAULT_KEY).build().parseClaimsJws(token).getBody();
+    }
+
+    @Benchmark
+    public Claims sharedParser() {
+        return uncached.parseClaims(token);
+    }
+
+    @Benchmark
+    public Claims cachedClaims() {
+        return cached.parseClaims(token);
+    }
+
+    private static JwtUtil jwtUtil(long validatedCacheSize) {
+        return new JwtUtil(new StandardEnvironment(), new SimpleMeterRegistry(), "default", Duration.ofDays(1), validatedCacheSize);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(JwtUtilBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
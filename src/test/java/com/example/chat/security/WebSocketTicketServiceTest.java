@@ -0,0 +1,113 @@
+package com.example.chat.security;
+
+import com.example.chat.entity.UsedTicketNonce;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class WebSocketTicketServiceTest {
+
+    private static final String SECRET = "a-shared-secret-of-at-least-32-bytes";
+
+    // Stands in for the unique _id of the UsedTicketNonce collection
+    private final Set<String> usedNonces = ConcurrentHashMap.newKeySet();
+    private MongoTemplate mongoTemplate;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        when(mongoTemplate.insert(any(UsedTicketNonce.class))).thenAnswer(invocation -> {
+            UsedTicketNonce nonce = invocation.getArgument(0);
+            if (!usedNonces.add(nonce.getId())) {
+                throw new DuplicateKeyException("E11000 duplicate key error");
+            }
+            return nonce;
+        });
+    }
+
+    private WebSocketTicketService service(String secret, Duration ttl) {
+        return new WebSocketTicketService(secret, ttl, "simple", mongoTemplate);
+    }
+
+    @Test
+    void ticketIsRedeemedOnceForItsUser() {
+        WebSocketTicketService service = service(SECRET, Duration.ofMinutes(1));
+        String ticket = service.issue("alice");
+
+        assertThat(service.redeem(ticket, "alice")).isEqualTo("alice");
+        assertThat(service.redeem(ticket, "alice")).isNull();
+    }
+
+    @Test
+    void replayOnAnotherNodeIsRejected() {
+        WebSocketTicketService nodeA = service(SECRET, Duration.ofMinutes(1));
+        WebSocketTicketService nodeB = service(SECRET, Duration.ofMinutes(1));
+        String ticket = nodeA.issue("alice");
+
+        assertThat(nodeB.redeem(ticket, "alice")).isEqualTo("alice");
+        assertThat(nodeA.redeem(ticket, "alice")).isNull();
+    }
+
+    @Test
+    void expiredTicketIsRejected() {
+        WebSocketTicketService service = service(SECRET, Duration.ofSeconds(-1));
+
+        assertThat(service.redeem(service.issue("alice"), "alice")).isNull();
+        assertThat(usedNonces).isEmpty();
+    }
+
+    @Test
+    void ticketForAnotherUserIsRejected() {
+        WebSocketTicketService service = service(SECRET, Duration.ofMinutes(1));
+
+        assertThat(service.redeem(service.issue("alice"), "mallory")).isNull();
+    }
+
+    @Test
+    void forgedTicketsAreRejected() {
+        WebSocketTicketService service = service(SECRET, Duration.ofMinutes(1));
+        String ticket = service.issue("alice");
+        String signature = ticket.substring(ticket.indexOf('.') + 1);
+
+        // Same signature over a payload naming another user
+        String payload = new String(Base64.getUrlDecoder().decode(ticket.substring(0, ticket.indexOf('.'))), StandardCharsets.UTF_8);
+        String mallory = Base64.getUrlEncoder().withoutPadding().encodeToString("mallory".getBytes(StandardCharsets.UTF_8));
+        String tampered = payload.replaceFirst("^[^:]+", mallory);
+        String tamperedTicket = Base64.getUrlEncoder().withoutPadding().encodeToString(tampered.getBytes(StandardCharsets.UTF_8)) + "." + signature;
+        assertThat(service.redeem(tamperedTicket, "mallory")).isNull();
+
+        // Signed with another key
+        String otherKey = service("another-secret-of-at-least-32-bytes!", Duration.ofMinutes(1)).issue("alice");
+        assertThat(service.redeem(otherKey, "alice")).isNull();
+
+        assertThat(service.redeem(null, "alice")).isNull();
+        assertThat(service.redeem("no-dot", "alice")).isNull();
+        assertThat(service.redeem("***.***", "alice")).isNull();
+        assertThat(usedNonces).isEmpty();
+
+        assertThat(service.redeem(ticket, "alice")).isEqualTo("alice");
+    }
+
+    @Test
+    void relayModeRequiresASharedSecret() {
+        assertThatThrownBy(() -> new WebSocketTicketService("", Duration.ofMinutes(1), "relay", mongoTemplate))
+                .isInstanceOf(IllegalStateException.class);
+
+        WebSocketTicketService service = new WebSocketTicketService(SECRET, Duration.ofMinutes(1), "relay", mongoTemplate);
+        assertThat(service.redeem(service.issue("alice"), "alice")).isEqualTo("alice");
+    }
+
+}
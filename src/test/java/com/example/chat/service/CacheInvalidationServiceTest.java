@@ -0,0 +1,146 @@
+package com.example.chat.service;
+
+import com.example.chat.EmbeddedStompBroker;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs several nodes' CacheInvalidationService against an embedded Artemis broker speaking STOMP,
+ * the same way they share RabbitMQ or ActiveMQ in relay mode.
+ */
+class CacheInvalidationServiceTest {
+
+    @TempDir
+    static Path brokerDir;
+
+    private static final String PROBE = "probe";
+
+    private static EmbeddedStompBroker broker;
+
+    private final List<CacheInvalidationService> nodes = new ArrayList<>();
+
+    @BeforeAll
+    static void startBroker() throws Exception {
+        broker = new EmbeddedStompBroker(brokerDir).start();
+    }
+
+    @AfterAll
+    static void stopBroker() throws Exception {
+        broker.stop();
+    }
+
+    @AfterEach
+    void stopNodes() {
+        nodes.forEach(CacheInvalidationService::stop);
+    }
+
+    @Test
+    void invalidationsReachOtherNodesButNotTheSender() throws Exception {
+        Node a = node("relay");
+        Node b = node("relay");
+        a.service.start();
+        b.service.start();
+        awaitSubscribed(a, b);
+
+        a.service.publish("users", "alice");
+        a.service.publish("users", List.of("bob", "carol"));
+        b.service.publish("tokenVersions", "dave");
+
+        await(() -> b.invalidated.size() >= 3 && a.invalidated.size() >= 1);
+        Thread.sleep(100); // let any stray echo arrive
+        assertThat(b.invalidated).containsExactly("users:alice", "users:bob", "users:carol");
+        assertThat(a.invalidated).containsExactly("tokenVersions:dave");
+    }
+
+    @Test
+    void nodeClearsItsCachesOnConnect() throws Exception {
+        Node a = node("relay");
+        a.service.start();
+
+        await(() -> a.service.isConnected() && a.cleared.get() == 2);
+    }
+
+    @Test
+    void publishesMissedWhileDisconnectedMakeTheOtherNodesClear() throws Exception {
+        Node a = node("relay");
+        a.service.start();
+        Node b = node("relay");
+        b.service.start();
+        awaitSubscribed(a, b);
+        int clearedBefore = a.cleared.get();
+
+        Node late = node("relay");
+        late.service.publish("users", "alice"); // not connected yet, so this is dropped
+        late.service.start();
+
+        await(() -> a.cleared.get() > clearedBefore);
+        assertThat(a.invalidated).isEmpty();
+    }
+
+    @Test
+    void simpleModeNeverConnects() {
+        Node a = node("simple");
+        a.service.start();
+
+        a.service.publish("users", "alice");
+
+        assertThat(a.service.isConnected()).isFalse();
+    }
+
+    private record Node(CacheInvalidationService service, List<String> invalidated, List<String> probed, AtomicInteger cleared) {
+    }
+
+    private Node node(String brokerMode) {
+        CacheInvalidationService service = new CacheInvalidationService(brokerMode, "localhost", broker.getPort(), "guest", "guest", "");
+        nodes.add(service);
+        Node node = new Node(service, new CopyOnWriteArrayList<>(), new CopyOnWriteArrayList<>(), new AtomicInteger());
+        for (String cache : List.of("users", "tokenVersions")) {
+            // Probes are kept apart, since late echoes of them may still arrive during a test
+            service.register(cache, key -> (key.equals(PROBE) ? node.probed : node.invalidated).add(cache + ":" + key), node.cleared::incrementAndGet);
+        }
+        return node;
+    }
+
+    // The SUBSCRIBE frames race the first SEND, so probe until each node hears the other
+    private static void awaitSubscribed(Node a, Node b) {
+        await(() -> a.service.isConnected() && b.service.isConnected());
+        await(() -> {
+            a.service.publish("users", PROBE);
+            b.service.publish("users", PROBE);
+            sleep(20);
+            return !a.probed.isEmpty() && !b.probed.isEmpty();
+        });
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Condition not met within 10 seconds");
+            }
+            sleep(10);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
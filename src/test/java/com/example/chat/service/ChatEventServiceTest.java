@@ -0,0 +1,111 @@
+package com.example.chat.service;
+
+import com.example.chat.controller.WebSocketsController;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.user.SimpSession;
+import org.springframework.messaging.simp.user.SimpSubscription;
+import org.springframework.messaging.simp.user.SimpUser;
+import org.springframework.messaging.simp.user.SimpUserRegistry;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ChatEventServiceTest {
+
+    private final List<ChatEventService.ChatEvent> events = List.of(ChatEventService.connectionChanged("bob"));
+    private final List<WebSocketsController.StatusResponse> responses = List.of(new WebSocketsController.StatusResponse());
+
+    private ChatEventService chatEventService;
+    private PresenceRegistry presenceRegistry;
+    private SimpUserRegistry simpUserRegistry;
+
+    @BeforeEach
+    void setUp() {
+        simpUserRegistry = mock(SimpUserRegistry.class);
+        presenceRegistry = new PresenceRegistry();
+        presenceRegistry.simpUserRegistry = simpUserRegistry;
+
+        chatEventService = new ChatEventService();
+        chatEventService.presenceRegistry = presenceRegistry;
+        chatEventService.messagingTemplate = mock(SimpMessagingTemplate.class);
+    }
+
+    @Test
+    void eachSessionGetsOnlyTheFormatItNegotiated() {
+        presenceRegistry.addSession("alice", "delta-session", true);
+        presenceRegistry.addSession("alice", "legacy-session", false);
+
+        chatEventService.notify("alice", events, () -> responses);
+
+        verifySent("delta-session", ChatEventService.EVENTS_DESTINATION, events);
+        verifySent("legacy-session", ChatEventService.LEGACY_DESTINATION, responses);
+        verifyNoMoreInteractions(chatEventService.messagingTemplate);
+    }
+
+    @Test
+    void legacyPayloadIsOnlyBuiltWhenASessionNeedsIt() {
+        presenceRegistry.addSession("alice", "delta-1", true);
+        presenceRegistry.addSession("alice", "delta-2", true);
+        AtomicInteger built = new AtomicInteger();
+
+        chatEventService.notify("alice", events, () -> {
+            built.incrementAndGet();
+            return responses;
+        });
+
+        assertThat(built).hasValue(0);
+        verifySent("delta-1", ChatEventService.EVENTS_DESTINATION, events);
+        verifySent("delta-2", ChatEventService.EVENTS_DESTINATION, events);
+    }
+
+    @Test
+    void sessionsOnOtherNodesAreJudgedByTheirSubscriptions() {
+        Set<SimpSession> sessions = Set.of(
+                remoteSession("remote-delta", ChatEventService.EVENTS_SUBSCRIPTION),
+                remoteSession("remote-legacy", "/user" + ChatEventService.LEGACY_DESTINATION)
+        );
+        SimpUser alice = mock(SimpUser.class);
+        when(alice.getSessions()).thenReturn(sessions);
+        when(simpUserRegistry.getUser("alice")).thenReturn(alice);
+
+        chatEventService.notify("alice", events, () -> responses);
+
+        verifySent("remote-delta", ChatEventService.EVENTS_DESTINATION, events);
+        verifySent("remote-legacy", ChatEventService.LEGACY_DESTINATION, responses);
+        verifyNoMoreInteractions(chatEventService.messagingTemplate);
+    }
+
+    @Test
+    void offlineUserIsSentNothing() {
+        chatEventService.notify("alice", events, () -> responses);
+
+        verify(chatEventService.messagingTemplate, never()).convertAndSendToUser(anyString(), anyString(), any(), any(MessageHeaders.class));
+    }
+
+    private void verifySent(String sessionId, String destination, Object payload) {
+        verify(chatEventService.messagingTemplate).convertAndSendToUser(eq(sessionId), eq(destination), eq(payload),
+                argThat((MessageHeaders headers) -> sessionId.equals(SimpMessageHeaderAccessor.getSessionId(headers))));
+    }
+
+    private static SimpSession remoteSession(String id, String subscribedTo) {
+        SimpSubscription subscription = mock(SimpSubscription.class);
+        when(subscription.getDestination()).thenReturn(subscribedTo);
+        SimpSession session = mock(SimpSession.class);
+        when(session.getId()).thenReturn(id);
+        when(session.getSubscriptions()).thenReturn(Set.of(subscription));
+        return session;
+    }
+
+}
@@ -0,0 +1,157 @@
+package com.example.chat.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.NoSuchElementException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ChunkedUploadServiceTest {
+
+    private static final int CHUNK_SIZE = 4;
+
+    @TempDir
+    Path directory;
+
+    private final byte[] data = "0123456789abcdefghij".getBytes();
+
+    private ChunkedUploadService service(Duration expireAfter) throws IOException {
+        return new ChunkedUploadService(directory, DataSize.ofBytes(100), DataSize.ofBytes(CHUNK_SIZE), expireAfter);
+    }
+
+    @Test
+    void chunksAppendedInOrderCompleteTheFile() throws IOException {
+        ChunkedUploadService service = service(Duration.ofHours(1));
+        String uploadId = service.start("alice", "notes.txt", data.length).getUploadId();
+
+        assertThat(service.appendChunk("alice", uploadId, 0, slice(0, 7)).getOffset()).isEqualTo(7);
+        assertThat(service.appendChunk("alice", uploadId, 7, slice(7, data.length)).getOffset()).isEqualTo(data.length);
+
+        ChunkedUploadService.CompletedUpload completed = service.complete("alice", uploadId);
+        assertThat(Files.readAllBytes(completed.getPath())).isEqualTo(data);
+        assertThat(completed.getPath().getFileName().toString()).endsWith(".txt");
+        assertThat(completed.getSha256()).isEqualTo(sha256(data));
+    }
+
+    @Test
+    void chunkAtTheWrongOffsetIsRejected() throws IOException {
+        ChunkedUploadService service = service(Duration.ofHours(1));
+        String uploadId = service.start("alice", "notes.txt", data.length).getUploadId();
+        service.appendChunk("alice", uploadId, 0, slice(0, 5));
+
+        assertThatThrownBy(() -> service.appendChunk("alice", uploadId, 3, slice(3, 10)))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(service.getStatus("alice", uploadId).getOffset()).isEqualTo(5);
+    }
+
+    @Test
+    void chunkRunningPastTheDeclaredSizeIsRolledBack() throws IOException {
+        ChunkedUploadService service = service(Duration.ofHours(1));
+        String uploadId = service.start("alice", "notes.txt", 10).getUploadId();
+        service.appendChunk("alice", uploadId, 0, slice(0, 4));
+
+        assertThatThrownBy(() -> service.appendChunk("alice", uploadId, 4, slice(4, 12)))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThat(service.getStatus("alice", uploadId).getOffset()).isEqualTo(4);
+        assertThatThrownBy(() -> service.complete("alice", uploadId)).isInstanceOf(IllegalStateException.class);
+
+        service.appendChunk("alice", uploadId, 4, slice(4, 10));
+        ChunkedUploadService.CompletedUpload completed = service.complete("alice", uploadId);
+        assertThat(Files.readAllBytes(completed.getPath())).isEqualTo(Arrays.copyOf(data, 10));
+        // The rolled back bytes went into the digest, so the caller has to hash the file itself
+        assertThat(completed.getSha256()).isNull();
+    }
+
+    @Test
+    void droppedChunkResumesFromTheReportedOffset() throws IOException {
+        ChunkedUploadService service = service(Duration.ofHours(1));
+        String uploadId = service.start("alice", "notes.txt", data.length).getUploadId();
+
+        assertThatThrownBy(() -> service.appendChunk("alice", uploadId, 0, failingAfter(slice(0, data.length), 2 * CHUNK_SIZE)))
+                .isInstanceOf(IOException.class);
+
+        long offset = service.getStatus("alice", uploadId).getOffset();
+        assertThat(offset).isEqualTo(2 * CHUNK_SIZE);
+
+        service.appendChunk("alice", uploadId, offset, slice((int) offset, data.length));
+        ChunkedUploadService.CompletedUpload completed = service.complete("alice", uploadId);
+        assertThat(Files.readAllBytes(completed.getPath())).isEqualTo(data);
+        assertThat(completed.getSha256()).isEqualTo(sha256(data));
+    }
+
+    @Test
+    void uploadsAreOnlyVisibleToTheirOwner() throws IOException {
+        ChunkedUploadService service = service(Duration.ofHours(1));
+        String uploadId = service.start("alice", "notes.txt", data.length).getUploadId();
+
+        assertThatThrownBy(() -> service.getStatus("bob", uploadId)).isInstanceOf(NoSuchElementException.class);
+        assertThatThrownBy(() -> service.appendChunk("bob", uploadId, 0, slice(0, 4))).isInstanceOf(NoSuchElementException.class);
+    }
+
+    @Test
+    void oversizedOrEmptyUploadsAreRefused() throws IOException {
+        ChunkedUploadService service = service(Duration.ofHours(1));
+
+        assertThatThrownBy(() -> service.start("alice", "big.bin", 101)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.start("alice", "empty.bin", 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void expiredUploadsAreRemovedWithTheirFile() throws Exception {
+        ChunkedUploadService service = service(Duration.ZERO);
+        String uploadId = service.start("alice", "notes.txt", data.length).getUploadId();
+        service.appendChunk("alice", uploadId, 0, slice(0, 4));
+        Thread.sleep(5);
+
+        service.removeExpired();
+
+        assertThatThrownBy(() -> service.getStatus("alice", uploadId)).isInstanceOf(NoSuchElementException.class);
+        try (var files = Files.list(directory)) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    private InputStream slice(int from, int to) {
+        return new ByteArrayInputStream(Arrays.copyOfRange(data, from, to));
+    }
+
+    // Delivers the first {@code limit} bytes, then fails like a dropped connection
+    private static InputStream failingAfter(InputStream in, int limit) {
+        return new InputStream() {
+            private int read;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] buffer, int off, int len) throws IOException {
+                if (read >= limit) {
+                    throw new IOException("Connection reset");
+                }
+                int n = in.read(buffer, off, Math.min(len, limit - read));
+                read += Math.max(n, 0);
+                return n;
+            }
+        };
+    }
+
+    private static String sha256(byte[] bytes) {
+        return HexFormat.of().formatHex(MediaService.newSha256().digest(bytes));
+    }
+
+}
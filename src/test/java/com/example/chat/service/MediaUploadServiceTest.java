@@ -0,0 +1,89 @@
+package com.example.chat.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class MediaUploadServiceTest {
+
+    private static final Duration TIMEOUT = Duration.ofMillis(300);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private MediaUploadService mediaUploadService;
+    private MediaService mediaService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        mediaUploadService = new MediaUploadService(4, 10, TIMEOUT);
+        mediaService = mock(MediaService.class);
+        mediaUploadService.mediaService = mediaService;
+
+        // "slow" files finish only once released, "broken" ones fail, the rest upload at once
+        when(mediaService.upload(any(MultipartFile.class))).thenAnswer(invocation -> {
+            String name = invocation.<MultipartFile>getArgument(0).getOriginalFilename();
+            if (name.startsWith("slow")) {
+                release.await(5, TimeUnit.SECONDS);
+            }
+            if (name.startsWith("broken")) {
+                throw new IOException("Storage refused " + name);
+            }
+            return "https://media.example/" + name;
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        mediaUploadService.shutdown();
+    }
+
+    @Test
+    void slowFilesShareOneTimeoutInsteadOfOneEach() {
+        long start = System.nanoTime();
+
+        List<String> urls = mediaUploadService.uploadAll(files("slow-1.jpg", "slow-2.jpg", "slow-3.jpg"));
+
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+        assertThat(urls).containsExactly(null, null, null);
+        assertThat(elapsed).isLessThan(TIMEOUT.multipliedBy(2));
+    }
+
+    @Test
+    void failedAndTimedOutFilesKeepTheirSlotWhileTheOthersAreKept() throws IOException {
+        List<String> urls = mediaUploadService.uploadAll(files("a.jpg", "broken.jpg", "slow.jpg", "b.jpg"));
+
+        assertThat(urls).containsExactly("https://media.example/a.jpg", null, null, "https://media.example/b.jpg");
+        verify(mediaService, never()).deleteFile(any());
+    }
+
+    @Test
+    void uploadFinishingAfterItsTimeoutIsDeleted() throws IOException {
+        List<String> urls = mediaUploadService.uploadAll(files("slow.jpg"));
+        assertThat(urls).containsExactly((String) null);
+
+        release.countDown();
+
+        verify(mediaService, timeout(5000)).deleteFile("https://media.example/slow.jpg");
+    }
+
+    private static MultipartFile[] files(String... names) {
+        MultipartFile[] files = new MultipartFile[names.length];
+        for (int i = 0; i < names.length; i++) {
+            files[i] = mock(MultipartFile.class);
+            when(files[i].getOriginalFilename()).thenReturn(names[i]);
+        }
+        return files;
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.example.chat.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class PresenceServiceTest {
+
+    private PresenceService presenceService;
+
+    private final List<String> applied = new CopyOnWriteArrayList<>();
+    private final CountDownLatch firstStarted = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    // A fan-out for "blocked" waits until released, so tests can pile up changes behind it
+    private void start(int poolSize, int queueCapacity) {
+        presenceService = new PresenceService(poolSize, queueCapacity);
+        presenceService.presenceRegistry = mock(PresenceRegistry.class);
+        presenceService.loginService = mock(LoginService.class);
+        doAnswer(invocation -> {
+            String userName = invocation.getArgument(0);
+            String status = invocation.getArgument(1);
+            if (userName.equals("blocked")) {
+                firstStarted.countDown();
+                release.await(5, TimeUnit.SECONDS);
+            }
+            applied.add(userName + ":" + status);
+            return null;
+        }).when(presenceService.loginService).notifyLoginStatus(anyString(), anyString());
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        presenceService.shutdown();
+    }
+
+    @Test
+    void changesQueuedBehindARunningFanOutCollapseToTheLatest() throws Exception {
+        start(2, 10);
+
+        presenceService.publish("blocked", "online");
+        assertThat(firstStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+        presenceService.publish("blocked", "offline");
+        presenceService.publish("blocked", "online");
+        presenceService.publish("blocked", "offline");
+        release.countDown();
+
+        awaitApplied(2);
+        assertThat(applied).containsExactly("blocked:online", "blocked:offline");
+        verify(presenceService.presenceRegistry).recordStatus("blocked", "online");
+        verify(presenceService.presenceRegistry).recordStatus("blocked", "offline");
+    }
+
+    @Test
+    void otherUsersAreNotHeldUpByABusyOne() throws Exception {
+        start(2, 10);
+
+        presenceService.publish("blocked", "online");
+        assertThat(firstStarted.await(5, TimeUnit.SECONDS)).isTrue();
+        presenceService.publish("alice", "online");
+
+        awaitApplied(1);
+        assertThat(applied).containsExactly("alice:online");
+    }
+
+    @Test
+    void rejectedChangeDoesNotLeaveTheUserStuck() throws Exception {
+        start(1, 1);
+
+        presenceService.publish("blocked", "online");
+        assertThat(firstStarted.await(5, TimeUnit.SECONDS)).isTrue();
+        presenceService.publish("alice", "online"); // fills the queue
+        presenceService.publish("bob", "online");   // rejected and dropped
+
+        release.countDown();
+        awaitApplied(2);
+
+        presenceService.publish("bob", "offline");
+        awaitApplied(3);
+        assertThat(applied).containsExactly("blocked:online", "alice:online", "bob:offline");
+    }
+
+    private void awaitApplied(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (applied.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50); // let any unexpected extra fan-out show up
+        assertThat(applied).hasSize(count);
+    }
+
+}
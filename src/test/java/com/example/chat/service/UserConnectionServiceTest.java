@@ -0,0 +1,140 @@
+package com.example.chat.service;
+
+import com.example.chat.entity.UserConnection;
+import com.example.chat.repository.UserConnectionRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class UserConnectionServiceTest {
+
+    private static final String PARTICIPANTS = UserConnectionService.getSortedUserKey("alice", "bob");
+
+    private UserConnectionService userConnectionService;
+    private UserConnectionRepository userConnectionRepository;
+    private MongoTemplate mongoTemplate;
+    private CacheInvalidationService cacheInvalidationService;
+
+    @BeforeEach
+    void setUp() {
+        cacheInvalidationService = mock(CacheInvalidationService.class);
+        userConnectionService = new UserConnectionService(cacheInvalidationService, new SimpleMeterRegistry(), 100, Duration.ofMinutes(5));
+        userConnectionRepository = mock(UserConnectionRepository.class);
+        mongoTemplate = mock(MongoTemplate.class);
+        userConnectionService.userConnectionRepository = userConnectionRepository;
+        userConnectionService.mongoTemplate = mongoTemplate;
+    }
+
+    @Test
+    void cacheLatestKeepsTheHigherVersion() {
+        userConnectionService.cacheLatest(connection(3L, "third"));
+        userConnectionService.cacheLatest(connection(2L, "second"));
+
+        assertThat(userConnectionService.getConnection(PARTICIPANTS).getUser1LastConversation()).isEqualTo("third");
+        verifyNoInteractions(userConnectionRepository);
+    }
+
+    @Test
+    void cacheLatestReplacesOlderAndEqualVersions() {
+        userConnectionService.cacheLatest(connection(1L, "first"));
+        userConnectionService.cacheLatest(connection(2L, "second"));
+        assertThat(userConnectionService.getConnection(PARTICIPANTS).getUser1LastConversation()).isEqualTo("second");
+
+        userConnectionService.cacheLatest(connection(2L, "second again"));
+        assertThat(userConnectionService.getConnection(PARTICIPANTS).getUser1LastConversation()).isEqualTo("second again");
+    }
+
+    @Test
+    void unversionedConnectionDoesNotReplaceVersionedOne() {
+        userConnectionService.cacheLatest(connection(0L, "saved"));
+        userConnectionService.cacheLatest(connection(null, "unsaved"));
+
+        assertThat(userConnectionService.getConnection(PARTICIPANTS).getUser1LastConversation()).isEqualTo("saved");
+    }
+
+    @Test
+    void getConnectionReturnsCopies() {
+        userConnectionService.cacheLatest(connection(1L, "first"));
+
+        userConnectionService.getConnection(PARTICIPANTS).setUser1LastConversation("changed by caller");
+
+        assertThat(userConnectionService.getConnection(PARTICIPANTS).getUser1LastConversation()).isEqualTo("first");
+    }
+
+    @Test
+    void getConnectionLoadsOnMissOnly() {
+        when(userConnectionRepository.findByParticipants(PARTICIPANTS)).thenReturn(connection(1L, "first"));
+
+        userConnectionService.getConnection(PARTICIPANTS);
+        userConnectionService.getConnection(PARTICIPANTS);
+
+        verify(userConnectionRepository, times(1)).findByParticipants(PARTICIPANTS);
+    }
+
+    @Test
+    void blockingReplacesTheCachedEntry() {
+        UserConnection cached = connection(1L, "first");
+        userConnectionService.cacheLatest(cached);
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(UserConnection.class)))
+                .thenReturn(connection(2L, "first").setBlockedByUser2(true));
+
+        userConnectionService.updateConnection(userConnectionService.update(cached).blocked("bob", true));
+
+        assertThat(userConnectionService.getConnection(PARTICIPANTS).isBlockedByUser2()).isTrue();
+        verifyNoInteractions(userConnectionRepository);
+        verify(cacheInvalidationService).publish("connections", PARTICIPANTS);
+    }
+
+    @Test
+    void failedUpdateEvictsTheCachedEntry() {
+        UserConnection cached = connection(1L, "first");
+        userConnectionService.cacheLatest(cached);
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(UserConnection.class)))
+                .thenThrow(new DataAccessResourceFailureException("timed out"));
+        when(userConnectionRepository.findByParticipants(PARTICIPANTS)).thenReturn(connection(2L, "first").setBlockedByUser2(true));
+
+        assertThatThrownBy(() -> userConnectionService.updateConnection(userConnectionService.update(cached).blocked("bob", true)))
+                .isInstanceOf(DataAccessResourceFailureException.class);
+
+        assertThat(userConnectionService.getConnection(PARTICIPANTS).isBlockedByUser2()).isTrue();
+        verify(cacheInvalidationService).publish("connections", PARTICIPANTS);
+    }
+
+    @Test
+    void deleteConnectionInvalidatesByParticipants() {
+        UserConnection connection = connection(1L, "first");
+        userConnectionService.cacheLatest(connection);
+
+        userConnectionService.deleteConnection(connection);
+
+        verify(userConnectionRepository).deleteById(connection.getId());
+        assertThat(userConnectionService.getConnection(PARTICIPANTS)).isNull();
+        verify(userConnectionRepository).findByParticipants(PARTICIPANTS);
+    }
+
+    private static UserConnection connection(Long version, String lastConversation) {
+        return new UserConnection()
+                .setId("connection-1")
+                .setVersion(version)
+                .setParticipants(PARTICIPANTS)
+                .setUserId1("1")
+                .setUserId2("2")
+                .setUserName1("alice")
+                .setUserName2("bob")
+                .setUser1LastConversation(lastConversation);
+    }
+
+}
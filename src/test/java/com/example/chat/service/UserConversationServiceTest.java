@@ -0,0 +1,134 @@
+package com.example.chat.service;
+
+import com.example.chat.entity.UserConversation;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class UserConversationServiceTest {
+
+    private static final String PARTICIPANTS = "alice~bob";
+    private static final LocalDateTime T0 = LocalDateTime.of(2024, 1, 1, 12, 0);
+
+    private UserConversationService userConversationService;
+    private MongoTemplate mongoTemplate;
+
+    @BeforeEach
+    void setUp() {
+        userConversationService = new UserConversationService();
+        mongoTemplate = mock(MongoTemplate.class);
+        userConversationService.mongoTemplate = mongoTemplate;
+    }
+
+    @Test
+    void latestPageIsReadNewestFirstAndReturnedOldestFirst() {
+        // The database returns newest first; one extra row signals another page
+        returns(message("m4", 4), message("m3", 3), message("m2", 2));
+
+        UserConversationService.ConversationPage page = userConversationService.getConversationPage(
+                PARTICIPANTS, "alice", null, null, null, null, null, 2);
+
+        assertThat(page.getConversations()).extracting(UserConversation::getId).containsExactly("m3", "m4");
+        assertThat(page.isHasMore()).isTrue();
+
+        Query query = capturedQuery();
+        assertThat(query.getLimit()).isEqualTo(3);
+        assertThat(query.getSortObject()).isEqualTo(new Document("createdAt", -1).append("id", -1));
+        assertThat(query.getQueryObject().get("participants")).isEqualTo(PARTICIPANTS);
+    }
+
+    @Test
+    void lastPageHasNoMore() {
+        returns(message("m2", 2), message("m1", 1));
+
+        UserConversationService.ConversationPage page = userConversationService.getConversationPage(
+                PARTICIPANTS, "alice", null, null, null, null, null, 2);
+
+        assertThat(page.getConversations()).extracting(UserConversation::getId).containsExactly("m1", "m2");
+        assertThat(page.isHasMore()).isFalse();
+    }
+
+    @Test
+    void beforeCursorBreaksTiesOnId() {
+        returns(message("m1", 1));
+        LocalDateTime before = T0.plusSeconds(2);
+
+        userConversationService.getConversationPage(PARTICIPANTS, "alice", null, before, "m2", null, null, 2);
+
+        String filter = capturedQuery().getQueryObject().toString();
+        assertThat(capturedQuery().getSortObject()).isEqualTo(new Document("createdAt", -1).append("id", -1));
+        assertThat(filter).contains("$or").contains("$lt").contains("m2").doesNotContain("$gt");
+    }
+
+    @Test
+    void afterCursorPagesForwardWithoutReversing() {
+        returns(message("m3", 3), message("m4", 4), message("m5", 5));
+
+        UserConversationService.ConversationPage page = userConversationService.getConversationPage(
+                PARTICIPANTS, "alice", null, null, null, T0.plusSeconds(2), "m2", 2);
+
+        assertThat(page.getConversations()).extracting(UserConversation::getId).containsExactly("m3", "m4");
+        assertThat(page.isHasMore()).isTrue();
+
+        Query query = capturedQuery();
+        assertThat(query.getSortObject()).isEqualTo(new Document("createdAt", 1).append("id", 1));
+        assertThat(query.getQueryObject().toString()).contains("$gt").contains("m2");
+    }
+
+    @Test
+    void clearedChatOnlyReturnsLaterMessages() {
+        returns();
+
+        userConversationService.getConversationPage(PARTICIPANTS, "alice", T0, null, null, null, null, 2);
+
+        @SuppressWarnings("unchecked")
+        List<Object> filters = (List<Object>) capturedQuery().getQueryObject().get("$and");
+        assertThat(filters).contains(new Document("createdAt", new Document("$gt", T0)));
+    }
+
+    @Test
+    void pageSizeIsClamped() {
+        returns();
+
+        userConversationService.getConversationPage(PARTICIPANTS, "alice", null, null, null, null, null, 10_000);
+        userConversationService.getConversationPage(PARTICIPANTS, "alice", null, null, null, null, null, 0);
+
+        ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, times(2)).find(queries.capture(), eq(UserConversation.class));
+        assertThat(queries.getAllValues()).extracting(Query::getLimit)
+                .containsExactly(UserConversationService.MAX_PAGE_SIZE + 1, 2);
+    }
+
+    private void returns(UserConversation... conversations) {
+        when(mongoTemplate.find(any(Query.class), eq(UserConversation.class)))
+                .thenReturn(new ArrayList<>(List.of(conversations)));
+    }
+
+    private Query capturedQuery() {
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, atLeastOnce()).find(query.capture(), eq(UserConversation.class));
+        return query.getValue();
+    }
+
+    private static UserConversation message(String id, int second) {
+        return new UserConversation()
+                .setId(id)
+                .setParticipants(PARTICIPANTS)
+                .setSender("alice")
+                .setReceiver("bob")
+                .setCreatedAt(T0.plusSeconds(second));
+    }
+
+}